@@ -0,0 +1,90 @@
+import java.io.*;
+import java.util.Random;
+
+public class DoilyFileBenchmark {
+    /* Measures how fast doilies are saved and loaded in the binary format (DoilyBinaryFile), compared to the
+       text format (DoilyFile) and to naive Java serialization of the dots one by one. Run it with :
+
+           gradle fileBenchmark [--args="<number of dots>"]
+     */
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int dotCount = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        DoilySnapshot doily = randomDoily(dotCount);
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf("%d dots, best of %d runs%n", dotCount, RUNS);
+        measure("binary (mapped)", new File(directory, "benchmark" + DoilyBinaryFile.EXTENSION), doily,
+                DoilyBinaryFile::write, DoilyBinaryFile::read);
+        measure("text", new File(directory, "benchmark" + DoilyFile.EXTENSION), doily,
+                DoilyFile::write, DoilyFile::read);
+        measure("serialization", new File(directory, "benchmark.ser"), doily,
+                DoilyFileBenchmark::serialize, DoilyFileBenchmark::deserialize);
+    }
+
+    interface Writer {
+        void write(DoilySnapshot doily, File file) throws IOException;
+    }
+
+    interface Reader {
+        DoilySnapshot read(File file) throws IOException;
+    }
+
+    private static void measure(String name, File file, DoilySnapshot doily, Writer writer, Reader reader) throws IOException {
+        long bestWrite = Long.MAX_VALUE, bestRead = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++){
+            long start = System.nanoTime();
+            writer.write(doily, file);
+            bestWrite = Math.min(bestWrite, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            DoilySnapshot loaded = reader.read(file);
+            bestRead = Math.min(bestRead, System.nanoTime() - start);
+            if (loaded.getDots().size() != doily.getDots().size()){
+                throw new IllegalStateException(name + " lost dots");
+            }
+        }
+        double megabytes = file.length() / 1e6;
+        System.out.printf("%-16s %8.1f MB   save %8.1f ms (%6.1f MB/s)   load %8.1f ms (%6.1f MB/s, %5.1f M dots/s)%n",
+                name, megabytes, bestWrite / 1e6, megabytes / (bestWrite / 1e9), bestRead / 1e6, megabytes / (bestRead / 1e9),
+                doily.getDots().size() / 1e6 / (bestRead / 1e9));
+        file.delete();
+    }
+
+    private static DoilySnapshot randomDoily(int dotCount){
+        Random random = new Random(42);
+        DotList dots = new DotList(dotCount);
+        for (int i = 0; i < dotCount; i++){
+            dots.push(random.nextDouble(), random.nextInt(520), 2 + random.nextInt(41), 0xff000000 | random.nextInt(0x1000000));
+        }
+        return new DoilySnapshot(dots, 8, true, true, DoilyPanel.WIDTH, DoilyPanel.HEIGHT);
+    }
+
+    private static void serialize(DoilySnapshot doily, File file) throws IOException {
+        // Baseline : every dot written field by field through an ObjectOutputStream.
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            DotList dots = doily.getDots();
+            out.writeInt(dots.size());
+            DotList.Cursor d = dots.cursor();
+            while (d.next()){
+                out.writeDouble(d.getPolar());
+                out.writeInt(d.getDistFromCenter());
+                out.writeInt(d.getRadius());
+                out.writeInt(d.getColor());
+            }
+        }
+    }
+
+    private static DoilySnapshot deserialize(File file) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            int dotCount = in.readInt();
+            DotList dots = new DotList(dotCount);
+            for (int i = 0; i < dotCount; i++){
+                dots.push(in.readDouble(), in.readInt(), in.readInt(), in.readInt());
+            }
+            return new DoilySnapshot(dots, 8, true, true, DoilyPanel.WIDTH, DoilyPanel.HEIGHT);
+        }
+    }
+}
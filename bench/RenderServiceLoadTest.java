@@ -0,0 +1,169 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RenderServiceLoadTest {
+    /* Load test of the RenderService : a number of clients each send render requests one after the other, as fast as
+       the service answers, for a fixed time. Throughput and latency percentiles are reported for each number of
+       clients. The doily is generated from a fixed seed, so runs are reproducible. Run it with :
+
+           gradle loadTest [--args="[--url http://host:port] [--clients 1,8,64] [--dots 10000] [--width 740] [--duration 10]"]
+
+       Without --url, a RenderService is started in the same JVM on a free port. Every response is checked to be a
+       PNG, and the requests answered otherwise are counted as errors. */
+
+    private static final long WARMUP_TIME = 2_000_000_000L;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G'};
+
+    private final HttpClient client;
+    private final URI renderUri;
+    private final byte[] doily;
+
+    public RenderServiceLoadTest(String url, int width, byte[] doily){
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        this.renderUri = URI.create(url + "/render?width=" + width);
+        this.doily = doily;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+
+        String url = null;
+        int[] clientCounts = {1, 8, 64};
+        int dotCount = 10_000;
+        int width = 740;
+        int duration = 10;
+        for (int i = 0; i + 1 < args.length; i += 2){
+            switch (args[i]){
+                case "--url":
+                    url = args[i + 1];
+                    break;
+                case "--clients":
+                    clientCounts = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--dots":
+                    dotCount = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--duration":
+                    duration = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        RenderService service = null;
+        if (url == null){
+            service = new RenderService(0);
+            service.start();
+            url = "http://localhost:" + service.getPort();
+        }
+
+        System.out.printf("Java %s, %s, %d processors, %d dots at %d pixels wide, against %s%n", System.getProperty("java.version"),
+                System.getProperty("os.name"), Runtime.getRuntime().availableProcessors(), dotCount, width, url);
+        System.out.printf("%8s %9s %7s %10s %10s %10s %10s %10s%n", "clients", "requests", "errors", "req/s", "mean", "p50", "p99", "max");
+        RenderServiceLoadTest loadTest = new RenderServiceLoadTest(url, width, randomDoily(dotCount));
+        loadTest.run(1, WARMUP_TIME);
+        for (int clients : clientCounts){
+            loadTest.report(clients, loadTest.run(clients, duration * 1_000_000_000L));
+        }
+        if (service != null){
+            service.stop();
+        }
+        System.exit(0);
+    }
+
+    private static byte[] randomDoily(int dotCount) throws IOException {
+        // Strokes of 10 dots spread over the whole canvas, in 12 sectors, as a doily definition (see DoilyFile).
+        Random random = new Random(42);
+        DotList dots = new DotList(dotCount);
+        while (dots.size() < dotCount){
+            double polar = random.nextDouble() * 0.95;
+            int distFromCenter = random.nextInt(DoilyPanel.WIDTH / 2);
+            int radius = 2 + random.nextInt(41);
+            int color = 0xff000000 | random.nextInt(0x1000000);
+            for (int i = 0; i < 10 && dots.size() < dotCount; i++){
+                dots.push(polar + i * 0.005, distFromCenter, radius, color, i > 0);
+            }
+        }
+        StringWriter writer = new StringWriter();
+        DoilyFile.write(new DoilySnapshot(dots, 12, true, true, DoilyPanel.WIDTH, DoilyPanel.HEIGHT, false), writer);
+        return writer.toString().getBytes("UTF-8");
+    }
+
+    private Run run(int clients, long nanos) throws InterruptedException {
+        // Runs the given number of clients for nanos nanoseconds.
+        Run run = new Run();
+        long end = System.nanoTime() + nanos;
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++){
+            threads[c] = new Thread(() -> {
+                while (System.nanoTime() < end){
+                    long start = System.nanoTime();
+                    boolean ok = send();
+                    long elapsed = System.nanoTime() - start;
+                    if (ok){
+                        synchronized (run.latencies){
+                            run.latencies.record(elapsed);
+                        }
+                    } else {
+                        run.errors.incrementAndGet();
+                    }
+                }
+            });
+            threads[c].start();
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads){
+            thread.join();
+        }
+        run.elapsedNanos = System.nanoTime() - start;
+        return run;
+    }
+
+    private boolean send(){
+        // Sends one render request, returning whether a PNG came back.
+        HttpRequest request = HttpRequest.newBuilder(renderUri).POST(HttpRequest.BodyPublishers.ofByteArray(doily)).build();
+        try {
+            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            byte[] body = response.body();
+            return response.statusCode() == 200 && body.length > PNG_SIGNATURE.length
+                    && Arrays.equals(Arrays.copyOf(body, PNG_SIGNATURE.length), PNG_SIGNATURE);
+        } catch (IOException e){
+            return false;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void report(int clients, Run run){
+        LatencyHistogram latencies = run.latencies;
+        System.out.printf("%8d %9d %7d %10.1f %10s %10s %10s %10s%n", clients, latencies.getCount(), run.errors.get(),
+                latencies.getCount() / (run.elapsedNanos / 1e9), formatTime(latencies.getMean()),
+                formatTime(latencies.getPercentile(50)), formatTime(latencies.getPercentile(99)), formatTime(latencies.getMax()));
+    }
+
+    private static String formatTime(double nanos){
+        if (nanos >= 1e9){
+            return String.format("%.2f s", nanos / 1e9);
+        }
+        return String.format("%.1f ms", nanos / 1e6);
+    }
+
+    static class Run {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        long elapsedNanos;
+    }
+}
@@ -0,0 +1,275 @@
+import benchmarks.Fixture;
+
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class DoilyFixtures {
+    /* The operations measured by the benchmarks of the benchmarks package (see Fixture), which cannot reach the doily
+       classes themselves. Every doily is generated from a fixed seed, so runs are reproducible and can be compared
+       before/after a change. */
+
+    // Mouse events per run of the addDot and erase fixtures (undone before the next run).
+    private static final int ADD_BATCH = 1000;
+    private static final int ERASE_BATCH = 10;
+
+    private final Random random = new Random(42);
+    private final BufferedImage target = new BufferedImage(DoilyPanel.WIDTH, DoilyPanel.HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+    public static Fixture create(String name, int dotCount, int sectors){
+        // The fixture of the benchmark method called name, on dotCount dots in sectors sectors.
+        DoilyFixtures fixtures = new DoilyFixtures();
+        switch (name){
+            case "drawDots":
+                return fixtures.rebuild(fixtures.createPanel(fixtures.randomDots(dotCount), sectors, false));
+            case "drawDotsDirect":
+                return fixtures.rebuild(fixtures.createPanel(fixtures.randomDots(dotCount), sectors, true));
+            case "getBufferedImage":
+                return fixtures.getBufferedImage(fixtures.createPanel(fixtures.randomDots(dotCount), sectors, false));
+            case "paint":
+                return fixtures.blit(fixtures.createPanel(fixtures.randomDots(dotCount), sectors, false));
+            case "paintDirect":
+                return fixtures.blit(fixtures.createPanel(fixtures.randomDots(dotCount), sectors, true));
+            case "addDot":
+                return fixtures.addDot(fixtures.createPanel(fixtures.randomDots(dotCount), sectors, false));
+            case "erase":
+                return fixtures.erase(fixtures.createPanel(fixtures.randomDots(dotCount), sectors, false));
+            case "fillOval":
+            case "fillOvalAA":
+                return fixtures.fillOval(fixtures.randomDots(dotCount), name.endsWith("AA"));
+            case "fillDot":
+            case "fillDotAA":
+                return fixtures.fillDot(fixtures.randomDots(dotCount), name.endsWith("AA"));
+            case "overlapping":
+                return fixtures.overlapping(fixtures.randomDots(dotCount));
+            case "overpainted":
+                return fixtures.rebuild(fixtures.createPanel(fixtures.overpaintedDots(dotCount), sectors, false));
+            case "pruned":
+                return fixtures.pruned(fixtures.createPanel(fixtures.overpaintedDots(dotCount), sectors, false));
+            case "prune":
+                return fixtures.prune(fixtures.overpaintedDots(dotCount), sectors);
+            case "preview":
+                return fixtures.preview(fixtures.randomDoily(dotCount, sectors), 1);
+            case "preview128":
+                return fixtures.preview(fixtures.randomDoily(dotCount, sectors), 128);
+            default:
+                throw new IllegalArgumentException("No fixture for " + name);
+        }
+    }
+
+    private DoilyPanel createPanel(DotList dots, int sectors, boolean directRasterizing){
+        // A panel of the canvas' size, holding dots, painted once.
+        DoilyPanel panel = new DoilyPanel();
+        panel.setSize(DoilyPanel.WIDTH, DoilyPanel.HEIGHT);
+        panel.setPruningEnabled(false);
+        panel.setNumberOfSectors(sectors);
+        panel.setDirectRasterizing(directRasterizing);
+        panel.setDots(dots);
+        paint(panel);
+        return panel;
+    }
+
+    private Fixture rebuild(DoilyPanel panel){
+        /* Painting panel with an out of date buffer. Switching tile rendering on and off again makes the panel rebuild
+           its buffer on the next paint, leaving the dots alone (setDots() would also show the hidden dots again). */
+        return new Fixture(){
+            public void prepare(){
+                panel.setTileRendering(true);
+                panel.setTileRendering(false);
+            }
+
+            public long run(){
+                return paint(panel);
+            }
+        };
+    }
+
+    private Fixture getBufferedImage(DoilyPanel panel){
+        return () -> panel.getBufferedImage().getRGB(DoilyPanel.WIDTH / 2, DoilyPanel.HEIGHT / 2);
+    }
+
+    private Fixture blit(DoilyPanel panel){
+        // Painting panel onto a screen image, its buffer being up to date (it was painted once).
+        Image screen = createScreenImage();
+        return () -> {
+            if (screen instanceof VolatileImage){
+                ((VolatileImage) screen).validate(GraphicsEnvironment.getLocalGraphicsEnvironment()
+                        .getDefaultScreenDevice().getDefaultConfiguration());
+            }
+            Graphics2D g2d = (Graphics2D) screen.getGraphics();
+            panel.paint(g2d);
+            g2d.dispose();
+            return panel.getPanelImageBuffer().getRGB(DoilyPanel.WIDTH / 2, DoilyPanel.HEIGHT / 2);
+        };
+    }
+
+    private static Image createScreenImage(){
+        /* An image held the way the screen holds what it shows (in video memory, if the pipeline accelerates it), or
+           an ordinary image without a display. */
+        if (GraphicsEnvironment.isHeadless()){
+            return new BufferedImage(DoilyPanel.WIDTH, DoilyPanel.HEIGHT, BufferedImage.TYPE_INT_RGB);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleVolatileImage(DoilyPanel.WIDTH, DoilyPanel.HEIGHT);
+    }
+
+    private Fixture addDot(DoilyPanel panel){
+        List<MouseEvent> events = randomMouseEvents(panel, ADD_BATCH);
+        return new Fixture(){
+            public void prepare(){
+                panel.undoDots(events.size());
+            }
+
+            public long run(){
+                for (MouseEvent event : events){
+                    panel.addDot(event);
+                }
+                return events.size();
+            }
+        };
+    }
+
+    private Fixture erase(DoilyPanel panel){
+        // The eraser is undone, then the panel painted, so every run erases from an up to date buffer.
+        List<MouseEvent> events = randomMouseEvents(panel, ERASE_BATCH);
+        panel.setPenSize(30);
+        return new Fixture(){
+            public void prepare(){
+                panel.undoDots(events.size());
+                paint(panel);
+            }
+
+            public long run(){
+                panel.setErasing(true);
+                for (MouseEvent event : events){
+                    panel.addDot(event);
+                }
+                panel.setErasing(false);
+                return paint(panel);
+            }
+        };
+    }
+
+    private Fixture fillOval(DotList dots, boolean antialiasing){
+        // Filling every dot at its position in the first sector with Java2D.
+        DotGeometry geometry = firstSector(dots);
+        Color[] colors = new Color[dots.size()];
+        for (int i = 0; i < dots.size(); i++){
+            colors[i] = new Color(dots.getColor(i), true);
+        }
+        return () -> {
+            Graphics2D g2d = target.createGraphics();
+            if (antialiasing){
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            }
+            for (int i = 0; i < dots.size(); i++){
+                g2d.setColor(colors[i]);
+                g2d.fillOval(geometry.getX(i), geometry.getY(i), dots.getRadius(i), dots.getRadius(i));
+            }
+            g2d.dispose();
+            return target.getRGB(DoilyPanel.WIDTH / 2, DoilyPanel.HEIGHT / 2);
+        };
+    }
+
+    private Fixture fillDot(DotList dots, boolean antialiasing){
+        // The same with the DotRasterizer.
+        DotGeometry geometry = firstSector(dots);
+        DotRasterizer rasterizer = new DotRasterizer(target);
+        rasterizer.setAntialiasing(antialiasing);
+        return () -> {
+            for (int i = 0; i < dots.size(); i++){
+                int radius = dots.getRadius(i);
+                rasterizer.fillDot(geometry.getX(i) + radius / 2f, geometry.getY(i) + radius / 2f, radius, dots.getColor(i));
+            }
+            return target.getRGB(DoilyPanel.WIDTH / 2, DoilyPanel.HEIGHT / 2);
+        };
+    }
+
+    private Fixture overlapping(DotList dots){
+        return () -> {
+            int overlapping = 0;
+            DotList.Cursor d = dots.cursor();
+            while (d.next()){
+                if (Dot.overlapping(d.getPolar(), d.getDistFromCenter(), d.getRadius(), 0.5, 200)){
+                    overlapping++;
+                }
+            }
+            return overlapping;
+        };
+    }
+
+    private Fixture pruned(DoilyPanel panel){
+        // Rebuilding once the dots covered by later dots are hidden. The number hidden is printed, to put the time in context.
+        int hidden = panel.pruneHiddenDots().join();
+        System.out.printf("%d of %d dots hidden%n", hidden, panel.getSnapshot().getDots().size());
+        return rebuild(panel);
+    }
+
+    private Fixture prune(DotList dots, int sectors){
+        Point center = new Point(DoilyPanel.WIDTH / 2, DoilyPanel.HEIGHT / 2);
+        return () -> OcclusionPruner.prune(dots, sectors, center).hiddenCount;
+    }
+
+    private Fixture preview(DoilySnapshot doily, int width){
+        // A preview width pixels wide, or as large as a gallery thumbnail if width is 1.
+        int previewWidth = (width > 1) ? width : doily.getCanvasWidth() / ImagePanel.SCALE;
+        int previewHeight = previewWidth * doily.getCanvasHeight() / doily.getCanvasWidth();
+        return () -> new PreviewRenderer(doily, previewWidth, previewHeight).render().getRGB(0, 0);
+    }
+
+    private long paint(DoilyPanel panel){
+        Graphics2D g2d = target.createGraphics();
+        panel.paint(g2d);
+        g2d.dispose();
+        return target.getRGB(DoilyPanel.WIDTH / 2, DoilyPanel.HEIGHT / 2);
+    }
+
+    private static DotGeometry firstSector(DotList dots){
+        DotGeometry geometry = new DotGeometry();
+        geometry.update(dots, 4, new Point(DoilyPanel.WIDTH / 2, DoilyPanel.HEIGHT / 2));
+        return geometry;
+    }
+
+    private DoilySnapshot randomDoily(int dotCount, int sectors){
+        return new DoilySnapshot(randomDots(dotCount), sectors, false, true, DoilyPanel.WIDTH, DoilyPanel.HEIGHT);
+    }
+
+    private DotList randomDots(int dotCount){
+        // Dots spread over the whole panel, with the pen sizes and colours the Control Panel allows.
+        DotList dots = new DotList(dotCount);
+        for (int i = 0; i < dotCount; i++){
+            dots.push(random.nextDouble(), random.nextInt(DoilyPanel.WIDTH / 2), 2 + random.nextInt(41), 0xff000000 | random.nextInt(0x1000000));
+        }
+        return dots;
+    }
+
+    private DotList overpaintedDots(int dotCount){
+        /* Strokes of 20 dots, with the pen sizes and colours the Control Panel allows, all drawn within a ring a fifth
+           of the panel wide : the kind of doily left by painting over the same area again and again. */
+        DotList dots = new DotList(dotCount);
+        int ringStart = DoilyPanel.WIDTH / 5, ringWidth = DoilyPanel.WIDTH / 5;
+        while (dots.size() < dotCount){
+            double polar = random.nextDouble();
+            int distFromCenter = ringStart + random.nextInt(ringWidth);
+            int radius = 2 + random.nextInt(41);
+            int color = 0xff000000 | random.nextInt(0x1000000);
+            for (int i = 0; i < 20 && dots.size() < dotCount; i++){
+                dots.push(Math.min(polar + i * 0.004, 0.999), distFromCenter + i / 4, radius, color, i > 0);
+            }
+        }
+        return dots;
+    }
+
+    private List<MouseEvent> randomMouseEvents(Component source, int count){
+        List<MouseEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++){
+            events.add(new MouseEvent(source, MouseEvent.MOUSE_CLICKED, 0, 0,
+                    random.nextInt(DoilyPanel.WIDTH), random.nextInt(DoilyPanel.HEIGHT), 1, false));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,48 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlitBenchmark {
+    /* Painting the Doily Panel once its buffer is up to date, which comes down to drawing the buffer onto the screen :
+
+           paint             with the buffer drawn with Java2D
+           paintDirect       with the dots written straight into the buffer's pixels (see DotRasterizer), which stops
+                             Java2D from caching the buffer in video memory
+
+       The buffer is drawn onto an image of the screen's own kind (see DoilyFixtures.createScreenImage()). The forks
+       are headless like the JVM running them, in which case that is an ordinary image and both paint the same way.
+       On a machine with a display, add -jvmArgsAppend -Djava.awt.headless=false to see what the screen makes of it.
+       Neither depends much on the number of dots, so a single doily is painted. */
+
+    @Param({"10000"})
+    public int dots;
+
+    @Param({"12"})
+    public int sectors;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params){
+        fixture = Fixture.create(params, dots, sectors);
+    }
+
+    @Benchmark
+    public long paint(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long paintDirect(){
+        return fixture.run();
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DotBenchmark {
+    /* Operations on every dot of a doily of random dots, one at a time, each at its position in the first sector :
+
+           fillOval          filling the dots into an image with Java2D
+           fillOvalAA        the same, antialiased
+           fillDot           filling the dots with the DotRasterizer
+           fillDotAA         the same, antialiased
+           overlapping       testing the dots against an eraser dot (Dot.overlapping()) */
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int dots;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params){
+        fixture = Fixture.create(params, dots, 0);
+    }
+
+    @Benchmark
+    public long fillOval(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long fillOvalAA(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long fillDot(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long fillDotAA(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long overlapping(){
+        return fixture.run();
+    }
+}
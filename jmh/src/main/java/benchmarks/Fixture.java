@@ -0,0 +1,29 @@
+package benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+public interface Fixture {
+    /* One operation measured by a benchmark, on a doily set up for it by DoilyFixtures.
+       The doily classes are all in the default package, which JMH does not allow benchmarks in, and which classes of
+       any other package cannot import. So DoilyFixtures, in the default package too, sets up each operation behind
+       this interface, and the benchmarks look it up by name, outside of the measured time. */
+
+    // Runs the operation once. Returns something computed from its result, so the JIT cannot discard it.
+    long run();
+
+    // Gets ready for the next run (e.g. undoes the previous one), outside of the measured time.
+    default void prepare(){
+    }
+
+    static Fixture create(BenchmarkParams params, int dotCount, int sectors){
+        // The fixture of the benchmark params are for, named after its method (see DoilyFixtures.create()).
+        String benchmark = params.getBenchmark();
+        String name = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+        try {
+            return (Fixture) Class.forName("DoilyFixtures").getMethod("create", String.class, int.class, int.class)
+                    .invoke(null, name, dotCount, sectors);
+        } catch (ReflectiveOperationException e){
+            throw new IllegalStateException("Could not set up the " + name + " benchmark", e);
+        }
+    }
+}
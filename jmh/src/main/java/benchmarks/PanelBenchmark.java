@@ -0,0 +1,69 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PanelBenchmark {
+    /* The drawing and erasing hot paths of the Doily Panel, on doilies of random dots spread over the whole panel :
+
+           drawDots          rebuilding the panel's buffer from scratch, every dot in every sector (one paint)
+           drawDotsDirect    the same, writing the dots straight into the buffer's pixels (see DotRasterizer)
+           getBufferedImage  painting the doily onto a new image once the buffer is up to date
+           addDot            adding 1000 dots from mouse events (coordinate conversion, history, dirty region)
+           erase             erasing with 10 clicks of a 30px eraser, and painting the result
+
+       Each run is prepared at Level.Invocation (the buffer made out of date, the previous dots undone...), which JMH
+       only times right for runs lasting well over a millisecond : hence the batches of mouse events.
+       Large doilies take a while : rebuilding a million dots in 24 sectors takes seconds on a slow machine. */
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int dots;
+
+    @Param({"4", "12", "24"})
+    public int sectors;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params){
+        fixture = Fixture.create(params, dots, sectors);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare(){
+        fixture.prepare();
+    }
+
+    @Benchmark
+    public long drawDots(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long drawDotsDirect(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long getBufferedImage(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long addDot(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long erase(){
+        return fixture.run();
+    }
+}
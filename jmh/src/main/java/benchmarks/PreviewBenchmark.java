@@ -0,0 +1,42 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PreviewBenchmark {
+    /* Gallery thumbnails of a doily of random dots :
+
+           preview           rendering a thumbnail with the PreviewRenderer
+           preview128        rendering a 128 pixels wide preview */
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int dots;
+
+    @Param({"4", "12", "24"})
+    public int sectors;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params){
+        fixture = Fixture.create(params, dots, sectors);
+    }
+
+    @Benchmark
+    public long preview(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long preview128(){
+        return fixture.run();
+    }
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PruningBenchmark {
+    /* Hiding the dots covered by later dots (see OcclusionPruner), on a doily of strokes painted over and over the
+       same ring, the kind of doily left by painting over the same area again and again :
+
+           overpainted       rebuilding the panel's buffer from scratch (like PanelBenchmark.drawDots)
+           pruned            the same, once the dots covered by later dots are hidden
+           prune             finding those dots */
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int dots;
+
+    @Param({"4", "12", "24"})
+    public int sectors;
+
+    private Fixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params){
+        fixture = Fixture.create(params, dots, sectors);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare(){
+        fixture.prepare();
+    }
+
+    @Benchmark
+    public long overpainted(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long pruned(){
+        return fixture.run();
+    }
+
+    @Benchmark
+    public long prune(){
+        return fixture.run();
+    }
+}
@@ -0,0 +1,130 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchRenderer {
+    /* Headless entry point rendering every saved doily definition (text or binary, see DoilyFile) of a directory to PNG files.
+       Run it with :
+
+           java -Djava.awt.headless=true -jar "Digital Doilies.jar" --batch <input dir> <output dir> [width] [threads]
+
+       Doilies are rendered in parallel, one per thread. At most one doily per thread is loaded at any time :
+       the directory is read lazily and a new doily is only started once a thread is free, so memory stays bounded
+       no matter how many doilies the directory holds. */
+
+    private static final int DEFAULT_WIDTH = 740;
+
+    private final File outputDirectory;
+    private final int width;
+    private final int threads;
+
+    private final AtomicInteger rendered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public BatchRenderer(File outputDirectory, int width, int threads){
+        this.outputDirectory = outputDirectory;
+        this.width = width;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args){
+        System.setProperty("java.awt.headless", "true");
+
+        if (args.length < 2 || args.length > 4){
+            System.err.println("Usage : --batch <input dir> <output dir> [width] [threads]");
+            System.exit(2);
+        }
+        File inputDirectory = new File(args[0]);
+        File outputDirectory = new File(args[1]);
+        int width = DEFAULT_WIDTH;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            if (args.length > 2){
+                width = Integer.parseInt(args[2]);
+            }
+            if (args.length > 3){
+                threads = Integer.parseInt(args[3]);
+            }
+        } catch (NumberFormatException e){
+            System.err.println("Width and threads must be numbers : " + e.getMessage());
+            System.exit(2);
+        }
+        if (width <= 0 || threads <= 0){
+            System.err.println("Width and threads must be positive");
+            System.exit(2);
+        }
+        if (!inputDirectory.isDirectory() || !(outputDirectory.isDirectory() || outputDirectory.mkdirs())){
+            System.err.println("Cannot read " + inputDirectory + " or write to " + outputDirectory);
+            System.exit(2);
+        }
+
+        BatchRenderer batchRenderer = new BatchRenderer(outputDirectory, width, threads);
+        try {
+            batchRenderer.renderAll(inputDirectory.toPath());
+        } catch (IOException | InterruptedException e){
+            System.err.println("Batch rendering failed : " + e);
+            System.exit(1);
+        }
+        System.exit(batchRenderer.getFailed() > 0 ? 1 : 0);
+    }
+
+    public void renderAll(Path inputDirectory) throws IOException, InterruptedException {
+        // Renders every doily file of inputDirectory, waiting until they are all done.
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore freeThreads = new Semaphore(threads);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(inputDirectory, path -> DoilyFile.isDoilyFile(path.toFile()))){
+            for (Path file : files){
+                freeThreads.acquire();
+                executor.execute(() -> {
+                    try {
+                        render(file.toFile());
+                    } finally {
+                        freeThreads.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Rendered %d doilies (%d failed) in %.1f s on %d threads : %.1f doilies/s%n",
+                rendered.get(), failed.get(), seconds, threads, rendered.get() / seconds);
+    }
+
+    private void render(File file){
+        // Renders one doily file to a PNG of the same name in the output directory.
+        String name = file.getName();
+        File output = new File(outputDirectory, name.substring(0, name.lastIndexOf('.')) + ".png");
+        try {
+            DoilySnapshot doily = DoilyFile.load(file);
+            DoilyRenderer renderer = new DoilyRenderer(doily, width, DoilyRenderer.getHeightForWidth(doily, width));
+            BufferedImage image = renderer.render();
+            ImageIO.write(image, "png", output);
+            rendered.incrementAndGet();
+        } catch (IOException | RuntimeException e){
+            System.err.println("Could not render " + file + " : " + e.getMessage());
+            failed.incrementAndGet();
+        }
+    }
+
+    public int getRendered() {
+        return rendered.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+}
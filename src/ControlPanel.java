@@ -1,26 +1,40 @@
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import javax.imageio.ImageIO;
 
 public class ControlPanel extends JPanel {
 
-    private JButton clearDisplayButton, undoButton, redoButton, saveButton, pickColorButton;
+    // Formats the doily can be exported to, the first being the default.
+    private static final FileNameExtensionFilter[] EXPORT_FILTERS = {
+            new FileNameExtensionFilter("PNG image", StreamingPngExporter.PNG_EXTENSION.substring(1)),
+            new FileNameExtensionFilter("SVG vector image", VectorExporter.SVG_EXTENSION.substring(1)),
+            new FileNameExtensionFilter("PDF document", VectorExporter.PDF_EXTENSION.substring(1)),
+            new FileNameExtensionFilter("GIF animation of the drawing", TimeLapseExporter.GIF_EXTENSION.substring(1))
+    };
+
+    private JButton clearDisplayButton, undoButton, redoButton, saveButton, pickColorButton, exportButton, saveDefinitionButton;
     private JToggleButton toggleErasing;
     private JColorChooser colorChooser;
     private JSlider penSizeSlider, numberOfSectorsSlider, undoSlider, redoSlider;
-    private JCheckBox showSectorLinersCheckbox, reflectDrawnPointsCheckbox;
+    private JCheckBox showSectorLinersCheckbox, reflectDrawnPointsCheckbox, tileRenderingCheckbox, showPerformanceCheckbox,
+            directRasterizingCheckbox;
     private JLabel penSizeLabel, numberOfSectorsLabel, undoLabel, redoLabel;
     private DoilyPanel doilyPanel;
     private GalleryPanel galleryPanel;
 
 
     public ControlPanel(DoilyPanel doilyPanel, GalleryPanel galleryPanel){
-        this.setLayout(new GridLayout(7, 2));
+        this.setLayout(new GridLayout(10, 2));
         setMaximumSize(new Dimension(50, 480));
         this.doilyPanel = doilyPanel;
         this.galleryPanel = galleryPanel;
@@ -33,13 +47,15 @@ public class ControlPanel extends JPanel {
         toggleErasing = new JToggleButton("Switch to eraser");
         saveButton = new JButton("Save doily to gallery");
         pickColorButton = new JButton("Pick a color");
+        exportButton = new JButton("Export doily (PNG, SVG, PDF, GIF)");
+        saveDefinitionButton = new JButton("Save doily definition");
 
         //Create colour chooser.
         colorChooser = new JColorChooser(Color.BLUE);
 
         //Create various sliders.
         penSizeSlider = new JSlider(2, 42, 10);
-        numberOfSectorsSlider = new JSlider(4, 24, 4);
+        numberOfSectorsSlider = new JSlider(4, DoilySnapshot.MAX_NUMBER_OF_SECTORS, 4);
         undoSlider = new JSlider(1, 50, 5);
         redoSlider = new JSlider(1, 50, 5);
 
@@ -47,6 +63,9 @@ public class ControlPanel extends JPanel {
         //Create the different checkboxes and corresponding labels.
         showSectorLinersCheckbox = new JCheckBox("Show Sector Lines");
         reflectDrawnPointsCheckbox = new JCheckBox("Reflect Drawn Points");
+        tileRenderingCheckbox = new JCheckBox("Fast Sector Rendering");
+        showPerformanceCheckbox = new JCheckBox("Show Performance");
+        directRasterizingCheckbox = new JCheckBox("Fast Dot Rendering");
         penSizeLabel = new JLabel("");
         updatePenSizeLabel();
         numberOfSectorsLabel = new JLabel("");
@@ -73,6 +92,8 @@ public class ControlPanel extends JPanel {
         toggleErasing.setActionCommand("toggleErasing");
         saveButton.setActionCommand("save");
         pickColorButton.setActionCommand("colorPick");
+        exportButton.setActionCommand("export");
+        saveDefinitionButton.setActionCommand("saveDefinition");
 
 
         //add event listeners to buttons. Listen for button clicks.
@@ -82,15 +103,25 @@ public class ControlPanel extends JPanel {
         toggleErasing.addActionListener(btnClickListener);
         saveButton.addActionListener(btnClickListener);
         pickColorButton.addActionListener(btnClickListener);
+        exportButton.addActionListener(btnClickListener);
+        saveDefinitionButton.addActionListener(btnClickListener);
 
 
         //Listen to change of state of checkboxes (selected/unselected).
         CheckboxListener checkboxListener = new CheckboxListener();
         showSectorLinersCheckbox.addItemListener(checkboxListener);
         reflectDrawnPointsCheckbox.addItemListener(checkboxListener);
+        tileRenderingCheckbox.addItemListener(checkboxListener);
+        showPerformanceCheckbox.addItemListener(checkboxListener);
+        directRasterizingCheckbox.addItemListener(checkboxListener);
         //Show sector lines by default
         showSectorLinersCheckbox.setSelected(true);
 
+        // Undoing/redoing can change the drawing parameters, so keep the slider and checkbox in sync with the Doily Panel.
+        // Setting them to the panel's own values does not record a new operation, as the panel ignores unchanged values.
+        doilyPanel.addPropertyChangeListener("numberOfSectors", e -> numberOfSectorsSlider.setValue((Integer) e.getNewValue()));
+        doilyPanel.addPropertyChangeListener("reflectDrawnPoints", e -> reflectDrawnPointsCheckbox.setSelected((Boolean) e.getNewValue()));
+
         //Create Panels to hold the pair (label, slider).
         JPanel undoPanel = new JPanel();
         undoPanel.setLayout(new GridLayout(1, 2));
@@ -118,15 +149,143 @@ public class ControlPanel extends JPanel {
         add(reflectDrawnPointsCheckbox);
         add(toggleErasing);
         add(pickColorButton);
+        add(tileRenderingCheckbox);
+        add(exportButton);
+        add(saveDefinitionButton);
+        add(showPerformanceCheckbox);
+        add(directRasterizingCheckbox);
 
     }
 
     private void saveDoily(){
-        if (galleryPanel.getNumberImages() >= GalleryPanel.MAX_IMAGES){
-            JOptionPane.showMessageDialog(null, "Maximum number of Doilies in Gallery Panel Reached.\nRemove doilies from gallery if you would like to add more.");
+        // Only the snapshot is taken here : the doily is rendered in the background (see GalleryPanel.addSnapshot()).
+        galleryPanel.addSnapshot(getDoilyPanel().getSnapshot());
+    }
+
+    private void exportDoily(){
+        /* Exports the current doily in the format picked in the file chooser : a PNG at any resolution (streamed to the
+           file as it is rendered if too large to hold in memory, see StreamingPngExporter), an SVG or PDF vector image
+           (see VectorExporter), or an animated GIF replaying the drawing of the doily (see TimeLapseExporter).
+           The file is given the format's extension, which is what the exporters go by. */
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setAcceptAllFileFilterUsed(false);
+        for (FileNameExtensionFilter filter : EXPORT_FILTERS){
+            fileChooser.addChoosableFileFilter(filter);
+        }
+        fileChooser.setFileFilter(EXPORT_FILTERS[0]);
+        fileChooser.setSelectedFile(new File("doily"));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION){
+            return;
+        }
+        FileNameExtensionFilter format = (FileNameExtensionFilter) fileChooser.getFileFilter();
+        File file = withExtension(fileChooser.getSelectedFile(), format.getExtensions()[0]);
+
+        // PDF sizes are in points, everything else in pixels. An animation is exported at the canvas' size by default.
+        DoilySnapshot snapshot = getDoilyPanel().getSnapshot();
+        boolean pdf = file.getName().toLowerCase().endsWith(VectorExporter.PDF_EXTENSION);
+        boolean gif = TimeLapseExporter.isGifFile(file);
+        String unit = pdf ? "points" : "pixels";
+        String input = JOptionPane.showInputDialog(this, "Width of the exported " + format.getDescription() + " (in " + unit + ") :",
+                gif ? Integer.toString(snapshot.getCanvasWidth()) : "4096");
+        if (input == null){
+            return;
+        }
+        int width;
+        try {
+            width = Integer.parseInt(input.trim());
+        } catch (NumberFormatException e){
+            width = 0;
+        }
+        if (width <= 0){
+            JOptionPane.showMessageDialog(this, "Please enter a positive number of " + unit + ".");
+            return;
+        }
+
+        // The snapshot is already taken, so the user can carry on drawing while the export is rendered.
+        int exportWidth = width;
+        if (VectorExporter.isVectorFile(file)){
+            runExport(file, () -> {
+                long start = System.nanoTime();
+                VectorExporter.export(snapshot, file, exportWidth);
+                return String.format("Exported %d dots in %.0f ms", snapshot.getDots().size(), (System.nanoTime() - start) / 1e6);
+            });
+        } else if (gif){
+            runExport(file, () -> new TimeLapseExporter(snapshot, exportWidth).exportGif(file));
+        } else if ((long) width * DoilyRenderer.getHeightForWidth(snapshot, exportWidth) > StreamingPngExporter.STREAMING_PIXELS){
+            runExport(file, () -> new StreamingPngExporter().export(snapshot, file, exportWidth));
         } else {
-            galleryPanel.addImage(getDoilyPanel().getBufferedImage());
+            runExport(file, () -> {
+                ParallelDoilyRenderer.Result result = new ParallelDoilyRenderer().render(snapshot, exportWidth);
+                ImageIO.write(result.getImage(), "png", file);
+                return result;
+            });
+        }
+    }
+
+    private static File withExtension(File file, String extension){
+        // file with the given extension, in place of the extension of another export format if it has one.
+        String name = file.getName();
+        if (name.toLowerCase().endsWith("." + extension)){
+            return file;
+        }
+        for (FileNameExtensionFilter filter : EXPORT_FILTERS){
+            String other = "." + filter.getExtensions()[0];
+            if (name.toLowerCase().endsWith(other)){
+                name = name.substring(0, name.length() - other.length());
+                break;
+            }
+        }
+        return new File(file.getParentFile(), name + "." + extension);
+    }
+
+    private void runExport(File file, Callable<?> export){
+        // Runs export in the background, then tells the user how it went, with what export returned if it succeeded.
+        new SwingWorker<Object, Void>(){
+            @Override
+            protected Object doInBackground() throws Exception {
+                return export.call();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    JOptionPane.showMessageDialog(ControlPanel.this, "Exported the doily to " + file + " :\n" + get(),
+                            "Export finished", JOptionPane.INFORMATION_MESSAGE);
+                } catch (InterruptedException | ExecutionException e){
+                    JOptionPane.showMessageDialog(ControlPanel.this, "Could not export the doily :\n" + e.getCause(),
+                            "Export failed", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
+    }
+
+    private void saveDoilyDefinition(){
+        // Saves the dots and drawing parameters of the current doily, so it can be rendered again later (e.g. by the BatchRenderer).
+        // Naming the file with the DoilyBinaryFile extension saves it in the compact binary format.
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setSelectedFile(new File("doily" + DoilyFile.EXTENSION));
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION){
+            return;
         }
+        File file = fileChooser.getSelectedFile();
+
+        DoilySnapshot snapshot = getDoilyPanel().getSnapshot();
+        new SwingWorker<Void, Void>(){
+            @Override
+            protected Void doInBackground() throws Exception {
+                DoilyFile.save(snapshot, file);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e){
+                    JOptionPane.showMessageDialog(null, "Could not save the doily :\n" + e.getCause());
+                }
+            }
+        }.execute();
     }
 
     private void updateNumberOfSectorsLabel(){
@@ -139,12 +298,12 @@ public class ControlPanel extends JPanel {
 
     private void updateUndoLabel(){
         undoLabel.setText("Undo Operations : " + undoSlider.getValue());
-        undoButton.setText("Undo " + undoSlider.getValue() + " Points");
+        undoButton.setText("Undo " + undoSlider.getValue() + " Operations");
     }
 
     private void updateRedoLabel(){
         redoLabel.setText("Redo Operations : " + redoSlider.getValue());
-        redoButton.setText("Redo " + redoSlider.getValue() + " Points");
+        redoButton.setText("Redo " + redoSlider.getValue() + " Operations");
     }
 
     private void updateToggleErasingButton(){
@@ -206,6 +365,14 @@ public class ControlPanel extends JPanel {
                     System.out.println("Save");
                     saveDoily();
                     break;
+                case "export":
+                    System.out.println("Export");
+                    exportDoily();
+                    break;
+                case "saveDefinition":
+                    System.out.println("Save definition");
+                    saveDoilyDefinition();
+                    break;
                 case "colorPick":
                     System.out.println("Color pick");
                     getDoilyPanel().setPenColor(JColorChooser.showDialog(null, "Pick a color !", getDoilyPanel().getPenColor()));
@@ -224,6 +391,12 @@ public class ControlPanel extends JPanel {
                 getDoilyPanel().setDrawSectorLines(selected);
             } else if (checkBox.equals(reflectDrawnPointsCheckbox)){
                 getDoilyPanel().setReflectDrawnPoints(selected);
+            } else if (checkBox.equals(tileRenderingCheckbox)){
+                getDoilyPanel().setTileRendering(selected);
+            } else if (checkBox.equals(showPerformanceCheckbox)){
+                getDoilyPanel().setShowPerformance(selected);
+            } else if (checkBox.equals(directRasterizingCheckbox)){
+                getDoilyPanel().setDirectRasterizing(selected);
             }
 
             getDoilyPanel().repaint();
@@ -0,0 +1,178 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+public class DoilyBinaryFile {
+    /* Compact binary version of the doily definitions written by DoilyFile, for very large doilies.
+       The file is a fixed size header followed by the dots :
+
+           int    magic (0x444F494C)
+           int    version
+           int    number of sectors
+           int    flags (1 = reflect drawn points, 2 = draw sector lines)
+           int    canvas width
+           int    canvas height
+           int    number of dots (n)
+           double polar            x n
+           int    distance         x n
+           int    radius           x n
+           int    colour (ARGB)    x n
+           byte   stroke joins     x (n + 7) / 8
+
+       The stroke joins are a bitset (bit i % 8 of byte i / 8) of the dots continuing the stroke of the previous dot
+       (see DotList). Version 1 files have no stroke joins, each of their dots being a stroke of its own.
+       The dots are stored one attribute after the other, exactly like DotList stores them in memory. Loading maps
+       the file into memory and copies each block straight into the DotList's arrays, without parsing dots one by one.
+       Everything is little endian. As the whole file is mapped at once, it is limited to 2GB (about 106 million dots) :
+       larger doilies are refused when writing, and larger files when reading. */
+
+    public static final String EXTENSION = ".doilyb";
+
+    private static final int MAGIC = 0x444F494C;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 7 * Integer.BYTES;
+    private static final int BYTES_PER_DOT = Double.BYTES + 3 * Integer.BYTES;
+    // Largest file which can be mapped at once.
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private static final int FLAG_REFLECT = 1;
+    private static final int FLAG_SECTOR_LINES = 2;
+
+    // Size of the buffer used to write the dots, in bytes.
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    public static void write(DoilySnapshot doily, File file) throws IOException {
+        DotList dots = doily.getDots();
+        // Checked before anything is written, so an existing file is left alone.
+        if (getFileSize(dots.size()) > MAX_FILE_SIZE){
+            throw new IOException(file + " : " + dots.size() + " dots are too many for a binary doily file, at most "
+                    + getMaxDotCount());
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(doily.getNumberOfSectors());
+            buffer.putInt((doily.isReflectDrawnPoints() ? FLAG_REFLECT : 0) | (doily.isDrawSectorLines() ? FLAG_SECTOR_LINES : 0));
+            buffer.putInt(doily.getCanvasWidth());
+            buffer.putInt(doily.getCanvasHeight());
+            buffer.putInt(dots.size());
+
+            // Each block is copied into the buffer in chunks, flushing the buffer to the channel whenever it is full.
+            double[] polars = dots.polarArray();
+            for (int i = 0; i < dots.size(); ){
+                int count = Math.min(dots.size() - i, buffer.remaining() / Double.BYTES);
+                if (count == 0){
+                    flush(buffer, channel);
+                    continue;
+                }
+                buffer.asDoubleBuffer().put(polars, i, count);
+                buffer.position(buffer.position() + count * Double.BYTES);
+                i += count;
+            }
+            for (int[] block : new int[][]{dots.distFromCenterArray(), dots.radiusArray(), dots.colorArray()}){
+                for (int i = 0; i < dots.size(); ){
+                    int count = Math.min(dots.size() - i, buffer.remaining() / Integer.BYTES);
+                    if (count == 0){
+                        flush(buffer, channel);
+                        continue;
+                    }
+                    buffer.asIntBuffer().put(block, i, count);
+                    buffer.position(buffer.position() + count * Integer.BYTES);
+                    i += count;
+                }
+            }
+
+            boolean[] joined = dots.joinedArray();
+            for (int i = 0; i < dots.size(); i += 8){
+                if (!buffer.hasRemaining()){
+                    flush(buffer, channel);
+                }
+                int bits = 0;
+                for (int j = 0; j < 8 && i + j < dots.size(); j++){
+                    if (joined[i + j]){
+                        bits |= 1 << j;
+                    }
+                }
+                buffer.put((byte) bits);
+            }
+            flush(buffer, channel);
+        }
+    }
+
+    private static long getFileSize(int dotCount){
+        // Size of a file holding dotCount dots, in the current version.
+        return HEADER_SIZE + (long) dotCount * BYTES_PER_DOT + (dotCount + 7L) / 8;
+    }
+
+    private static int getMaxDotCount(){
+        // The most dots a file can hold : each dot takes BYTES_PER_DOT bytes plus a bit.
+        return (int) ((MAX_FILE_SIZE - HEADER_SIZE) * 8 / (8 * BYTES_PER_DOT + 1));
+    }
+
+    public static DoilySnapshot read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE){
+                throw new IOException(file + " : not a binary doily file");
+            }
+            if (fileSize > MAX_FILE_SIZE){
+                throw new IOException(file + " : binary doily files are at most " + MAX_FILE_SIZE + " bytes long");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC){
+                throw new IOException(file + " : not a binary doily file");
+            }
+            int version = buffer.getInt();
+            if (version != 1 && version != VERSION){
+                throw new IOException(file + " : unsupported binary doily file version " + version);
+            }
+            int numberOfSectors = buffer.getInt();
+            int flags = buffer.getInt();
+            int canvasWidth = buffer.getInt();
+            int canvasHeight = buffer.getInt();
+            int dotCount = buffer.getInt();
+            if (numberOfSectors <= 0 || numberOfSectors > DoilySnapshot.MAX_NUMBER_OF_SECTORS || canvasWidth <= 0 || canvasHeight <= 0 || dotCount < 0
+                    || fileSize != HEADER_SIZE + (long) dotCount * BYTES_PER_DOT + (version > 1 ? (dotCount + 7L) / 8 : 0)){
+                throw new IOException(file + " : corrupted binary doily file");
+            }
+
+            double[] polars = new double[dotCount];
+            int[] distsFromCenter = new int[dotCount];
+            int[] radii = new int[dotCount];
+            int[] colors = new int[dotCount];
+            buffer.asDoubleBuffer().get(polars);
+            buffer.position(buffer.position() + dotCount * Double.BYTES);
+            for (int[] block : new int[][]{distsFromCenter, radii, colors}){
+                buffer.asIntBuffer().get(block);
+                buffer.position(buffer.position() + dotCount * Integer.BYTES);
+            }
+            boolean[] joined = new boolean[dotCount];
+            if (version > 1){
+                for (int i = 0; i < dotCount; i += 8){
+                    int bits = buffer.get();
+                    for (int j = 0; j < 8 && i + j < dotCount; j++){
+                        joined[i + j] = (bits & (1 << j)) != 0;
+                    }
+                }
+            }
+
+            return new DoilySnapshot(new DotList(polars, distsFromCenter, radii, colors, joined), numberOfSectors,
+                    (flags & FLAG_REFLECT) != 0, (flags & FLAG_SECTOR_LINES) != 0, canvasWidth, canvasHeight, false);
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,203 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class DoilyEngine {
+    /* The doily itself, independent of any user interface : its dots and drawing parameters, which any thread can
+       snapshot and render while the doily is being edited. The Doily Panel keeps its doily in an engine, and the
+       RenderService renders doilies with engines, away from Swing.
+
+       Every method is thread safe. Modifications take the write lock. Snapshots take the read lock only for as long
+       as copying the dots takes, and rendering happens on the copy without holding any lock, so a slow render never
+       holds up editing (nor the other way round).
+
+       getDots() is the exception : it returns the live dots, without any copy, for the thread editing the engine to
+       read its own modifications (the Doily Panel reads them on the EDT all the time). Any other thread must use
+       getSnapshot().
+
+       Rendering is not part of the engine : snapshots are drawn by a DoilyRenderer, off screen. The Doily Panel still
+       draws its buffer with its own code (see DoilyPanel.drawSectors()). It draws the few dots added since the last
+       frame onto a buffer kept from frame to frame, leaving out the dots found hidden, through its tiles, rasterizer
+       and zoom, whereas a DoilyRenderer works out the position of every dot of its snapshot once, when it is created :
+       drawing each frame through one would copy and place every dot again. Both draw the same dots with the same
+       strokes, but the panel places dots on the canvas' whole pixels, where a DoilyRenderer keeps their exact
+       position, so an export may differ from the screen by a pixel around the edges of the dots. */
+
+    public static final int DEFAULT_NUMBER_OF_SECTORS = 4;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private DotList dots;
+    private int numberOfSectors;
+    private boolean reflectDrawnPoints;
+    private boolean drawSectorLines;
+
+    // Size of the canvas the dots are drawn on. Dot distances and radii are in pixels of this canvas.
+    private final int canvasWidth, canvasHeight;
+
+    public DoilyEngine(int canvasWidth, int canvasHeight){
+        this.dots = new DotList();
+        this.numberOfSectors = DEFAULT_NUMBER_OF_SECTORS;
+        this.reflectDrawnPoints = false;
+        this.drawSectorLines = true;
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+    }
+
+    public DoilyEngine(DoilySnapshot doily){
+        // The snapshot's dots are copied, as the engine modifies its own.
+        this.dots = new DotList(doily.getDots());
+        this.numberOfSectors = doily.getNumberOfSectors();
+        this.reflectDrawnPoints = doily.isReflectDrawnPoints();
+        this.drawSectorLines = doily.isDrawSectorLines();
+        this.canvasWidth = doily.getCanvasWidth();
+        this.canvasHeight = doily.getCanvasHeight();
+    }
+
+    public DoilySnapshot getSnapshot(){
+        // Takes an immutable copy of the doily, which can be rendered or saved while the engine carries on changing.
+        lock.readLock().lock();
+        try {
+            return new DoilySnapshot(dots, numberOfSectors, reflectDrawnPoints, drawSectorLines, canvasWidth, canvasHeight);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public BufferedImage render(int width){
+        // Renders the doily at the given width (the height keeps the canvas' aspect ratio), see DoilyRenderer.
+        DoilySnapshot doily = getSnapshot();
+        return new DoilyRenderer(doily, width, DoilyRenderer.getHeightForWidth(doily, width)).render();
+    }
+
+    public StreamingPngExporter.Result writePng(OutputStream out, int width, StreamingPngExporter exporter) throws IOException {
+        // Writes the doily to out as a PNG of the given width, rendered and compressed strip by strip by exporter.
+        return exporter.write(getSnapshot(), out, width);
+    }
+
+    /* Modifications. Besides replacing the dots, they mirror the DotList operations the Doily Panel uses for
+       drawing, erasing and undoing. */
+
+    public void addDot(double polar, int distFromCenter, int radius, int color, boolean joined){
+        lock.writeLock().lock();
+        try {
+            dots.push(polar, distFromCenter, radius, color, joined);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int removeMarked(BitSet marked){
+        lock.writeLock().lock();
+        try {
+            return dots.removeMarked(marked);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void insertAt(int[] indices, DotList inserted, int[] joinedIndices){
+        // Inserts dots back at the given indices (see DotList.insertAt()), then joins the dots at joinedIndices to the dot below.
+        lock.writeLock().lock();
+        try {
+            dots.insertAt(indices, inserted);
+            for (int i : joinedIndices){
+                dots.setJoined(i, true);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int popTo(DotList target, int count){
+        // Moves the top count dots onto target (see DotList.popTo()). Returns the number of dots moved.
+        lock.writeLock().lock();
+        try {
+            return dots.popTo(target, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int pushFrom(DotList source, int count){
+        // Moves the top count dots of source onto the doily, the reverse of popTo(). Returns the number of dots moved.
+        lock.writeLock().lock();
+        try {
+            return source.popTo(dots, count);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setDots(DotList dots){
+        // Replaces the dots with the given list, which the engine then owns : the caller must not modify it any more.
+        lock.writeLock().lock();
+        try {
+            this.dots = dots;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setParameters(int numberOfSectors, boolean reflectDrawnPoints){
+        lock.writeLock().lock();
+        try {
+            this.numberOfSectors = numberOfSectors;
+            this.reflectDrawnPoints = reflectDrawnPoints;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void setDrawSectorLines(boolean drawSectorLines){
+        lock.writeLock().lock();
+        try {
+            this.drawSectorLines = drawSectorLines;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Getters.
+
+    public DotList getDots() {
+        // The live dots : only for the thread modifying the engine (see above).
+        return dots;
+    }
+
+    public int getNumberOfSectors() {
+        lock.readLock().lock();
+        try {
+            return numberOfSectors;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isReflectDrawnPoints() {
+        lock.readLock().lock();
+        try {
+            return reflectDrawnPoints;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isDrawSectorLines() {
+        lock.readLock().lock();
+        try {
+            return drawSectorLines;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+}
@@ -0,0 +1,124 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+public class DoilyEvents {
+    /* JDK Flight Recorder events of the Doily Panel's hot paths, recorded along with the PerformanceMonitor's histograms.
+       They cost next to nothing unless a recording is running, e.g. started with :
+
+           java -XX:StartFlightRecording=filename=doilies.jfr,settings=profile -jar doilies.jar
+
+       and show up under "Doilies" in JDK Mission Control, or with : jfr print --categories Doilies doilies.jfr
+       Stack traces are not recorded : each event happens in a single, known place. */
+
+    @Name("doilies.Paint")
+    @Label("Paint")
+    @Category("Doilies")
+    @Description("Painting the Doily Panel")
+    @StackTrace(false)
+    static class Paint extends Event {
+        @Label("Dots")
+        int dots;
+
+        @Label("Sectors")
+        int sectors;
+
+        @Label("Dots Drawn")
+        @Description("Dots drawn onto the panel's buffer, in every sector")
+        int dotsDrawn;
+
+        @Label("Rebuilt")
+        @Description("Whether the panel's buffer was redrawn from scratch")
+        boolean rebuilt;
+    }
+
+    @Name("doilies.DrawDots")
+    @Label("Draw Dots")
+    @Category("Doilies")
+    @Description("Drawing dots onto the Doily Panel's buffer")
+    @StackTrace(false)
+    static class DrawDots extends Event {
+        @Label("From")
+        int from;
+
+        @Label("To")
+        int to;
+
+        @Label("Sectors")
+        int sectors;
+
+        @Label("Tiled")
+        boolean tiled;
+    }
+
+    @Name("doilies.Erase")
+    @Label("Erase")
+    @Category("Doilies")
+    @Description("Erasing the dots under a batch of eraser dots")
+    @StackTrace(false)
+    static class Erase extends Event {
+        @Label("Dots")
+        int dots;
+
+        @Label("Eraser Dots")
+        int eraserDots;
+
+        @Label("Candidates Tested")
+        @Description("Dots tested against an eraser dot")
+        long candidatesTested;
+
+        @Label("Dots Erased")
+        int dotsErased;
+    }
+
+    @Name("doilies.AddDots")
+    @Label("Add Dots")
+    @Category("Doilies")
+    @Description("Adding a batch of dots from mouse input")
+    @StackTrace(false)
+    static class AddDots extends Event {
+        @Label("Dots Added")
+        int dotsAdded;
+
+        @Label("Erasing")
+        boolean erasing;
+    }
+
+    @Name("doilies.Prune")
+    @Label("Prune")
+    @Category("Doilies")
+    @Description("Finding the dots covered by later dots, in the background (see OcclusionPruner)")
+    @StackTrace(false)
+    static class Prune extends Event {
+        @Label("Dots")
+        int dots;
+
+        @Label("Sectors")
+        int sectors;
+
+        @Label("Strokes Hidden")
+        int strokesHidden;
+
+        @Label("Dots Hidden")
+        int dotsHidden;
+    }
+
+    @Name("doilies.PanelImage")
+    @Label("Panel Image")
+    @Category("Doilies")
+    @Description("Painting the Doily Panel onto a new image")
+    @StackTrace(false)
+    static class PanelImage extends Event {
+        @Label("Dots")
+        int dots;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+}
@@ -0,0 +1,141 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+public class DoilyFile {
+    /* Reads and writes doily definitions (dots and drawing parameters) as text files, so doilies can be saved
+       and rendered later, e.g. by the BatchRenderer. A file looks like this :
+
+           doily 2
+           sectors 7
+           reflect true
+           sectorLines true
+           canvas 740 740
+           dots 3
+           0.25 120 10 ffff0000 0
+           0.5 200 12 ff0000ff 0
+           0.52 204 12 ff0000ff 1
+
+       Each dot line holds the dot's polar, distance from center, radius, ARGB colour (in hexadecimal) and whether the
+       dot continues the stroke of the previous dot (see DotList). Version 1 files have no stroke column, and are
+       still read : each of their dots is a stroke of its own. */
+
+    public static final String EXTENSION = ".doily";
+
+    private static final String MAGIC = "doily";
+    private static final int VERSION = 2;
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+    public static boolean isDoilyFile(File file){
+        // True for both text and binary (see DoilyBinaryFile) doily definitions.
+        return file.getName().endsWith(EXTENSION) || file.getName().endsWith(DoilyBinaryFile.EXTENSION);
+    }
+
+    public static void save(DoilySnapshot doily, File file) throws IOException {
+        // Saves the doily as text or in binary, depending on the file's extension.
+        if (file.getName().endsWith(DoilyBinaryFile.EXTENSION)){
+            DoilyBinaryFile.write(doily, file);
+        } else {
+            write(doily, file);
+        }
+    }
+
+    public static DoilySnapshot load(File file) throws IOException {
+        // Loads a text or binary doily definition, depending on the file's extension.
+        if (file.getName().endsWith(DoilyBinaryFile.EXTENSION)){
+            return DoilyBinaryFile.read(file);
+        }
+        return read(file);
+    }
+
+    public static void write(DoilySnapshot doily, File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))){
+            write(doily, writer);
+        }
+    }
+
+    public static void write(DoilySnapshot doily, Writer writer) throws IOException {
+        writer.write(MAGIC + " " + VERSION + "\n");
+        writer.write("sectors " + doily.getNumberOfSectors() + "\n");
+        writer.write("reflect " + doily.isReflectDrawnPoints() + "\n");
+        writer.write("sectorLines " + doily.isDrawSectorLines() + "\n");
+        writer.write("canvas " + doily.getCanvasWidth() + " " + doily.getCanvasHeight() + "\n");
+
+        DotList dots = doily.getDots();
+        writer.write("dots " + dots.size() + "\n");
+        DotList.Cursor d = dots.cursor();
+        while (d.next()){
+            writer.write(String.format(Locale.ROOT, "%s %d %d %08x %d\n", Double.toString(d.getPolar()), d.getDistFromCenter(), d.getRadius(), d.getColor(), d.isJoined() ? 1 : 0));
+        }
+        writer.flush();
+    }
+
+    public static DoilySnapshot read(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))){
+            return read(reader);
+        } catch (IOException e){
+            throw new IOException(file + " : " + e.getMessage(), e);
+        }
+    }
+
+    public static DoilySnapshot read(BufferedReader reader) throws IOException {
+        return read(reader, Integer.MAX_VALUE);
+    }
+
+    public static DoilySnapshot read(BufferedReader reader, int maxDotCount) throws IOException {
+        // Reads a doily of at most maxDotCount dots : more is an error, found before any dot is read.
+        String[] header = expect(reader, MAGIC, 1);
+        if (!header[1].equals("1") && !header[1].equals(Integer.toString(VERSION))){
+            throw new IOException("Unsupported doily file version " + header[1]);
+        }
+        int fieldsPerDot = header[1].equals("1") ? 4 : 5;
+        try {
+            int numberOfSectors = Integer.parseInt(expect(reader, "sectors", 1)[1]);
+            boolean reflectDrawnPoints = Boolean.parseBoolean(expect(reader, "reflect", 1)[1]);
+            boolean drawSectorLines = Boolean.parseBoolean(expect(reader, "sectorLines", 1)[1]);
+            String[] canvas = expect(reader, "canvas", 2);
+            int dotCount = Integer.parseInt(expect(reader, "dots", 1)[1]);
+            if (numberOfSectors <= 0 || numberOfSectors > DoilySnapshot.MAX_NUMBER_OF_SECTORS){
+                throw new IOException("Invalid number of sectors " + numberOfSectors + ", expected 1 to " + DoilySnapshot.MAX_NUMBER_OF_SECTORS);
+            }
+            if (dotCount < 0 || Integer.parseInt(canvas[1]) <= 0 || Integer.parseInt(canvas[2]) <= 0){
+                throw new IOException("Invalid number of dots or canvas size");
+            }
+            if (dotCount > maxDotCount){
+                throw new IOException("Too many dots : " + dotCount + ", at most " + maxDotCount);
+            }
+
+            // The count may be anything (a corrupt file, a RenderService request), so the list only grows as dots are actually read.
+            DotList dots = new DotList(Math.min(dotCount, MAX_INITIAL_CAPACITY));
+            for (int i = 0; i < dotCount; i++){
+                String line = reader.readLine();
+                if (line == null){
+                    throw new IOException("Expected " + dotCount + " dots, found " + i);
+                }
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length != fieldsPerDot){
+                    throw new IOException("Invalid dot : " + line);
+                }
+                boolean joined = fieldsPerDot > 4 && !fields[4].equals("0");
+                dots.push(Double.parseDouble(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), Integer.parseUnsignedInt(fields[3], 16), joined);
+            }
+
+            return new DoilySnapshot(dots, numberOfSectors, reflectDrawnPoints, drawSectorLines, Integer.parseInt(canvas[1]), Integer.parseInt(canvas[2]), false);
+        } catch (NumberFormatException e){
+            throw new IOException("Invalid number : " + e.getMessage(), e);
+        }
+    }
+
+    private static String[] expect(BufferedReader reader, String key, int valueCount) throws IOException {
+        // Reads a "key value..." line, checking the key and the number of values.
+        String line = reader.readLine();
+        if (line == null){
+            throw new IOException("Unexpected end of file, expected " + key);
+        }
+        String[] fields = line.trim().split("\\s+");
+        if (!fields[0].equals(key) || fields.length != valueCount + 1){
+            throw new IOException("Expected " + key + ", found : " + line);
+        }
+        return fields;
+    }
+}
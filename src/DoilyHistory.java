@@ -0,0 +1,272 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+public class DoilyHistory {
+    /* Log of the operations applied to a doily, used for undo and redo.
+       Every change to the doily is recorded as an operation : adding a dot, erasing a batch of dots, clearing the
+       display, or changing the drawing parameters (number of sectors, reflection). Operations are applied and
+       reverted by the Doily Panel; this class only keeps track of them.
+
+       Consecutive dot additions are merged into a single ADD_DOTS operation holding a count, as the added dots
+       themselves are in the doily's DotList (and in undoneDots once undone). The position counts every dot as one
+       operation, so such an operation can be partially undone : the Doily Panel undoes and redoes them a stroke
+       (see DotList) at a time.
+
+       The memory used by the history is bounded, counting the dots of undone additions : once the limit is exceeded,
+       the oldest operations are forgotten (their changes become permanent), then the furthest operations to redo.
+       The Doily Panel's raster checkpoints count towards the same limit (see DoilyPanel.trimCheckpoints()). */
+
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    // Rough memory cost of an operation object, and of a dot stored in a DotList.
+    private static final long OPERATION_BYTES = 64;
+    private static final long DOT_BYTES = 21;
+
+    enum Type { ADD_DOTS, ERASE, CLEAR, PARAMETERS }
+
+    static class Operation {
+        final Type type;
+
+        // ADD_DOTS : number of dots added.
+        int count = 1;
+
+        /* ERASE : the erased dots, and the (increasing) indices they had in the DotList. Erasing cuts strokes, so
+           cutIndices holds the indices (before the erase) of the kept dots which continued the stroke of an erased dot.
+           CLEAR : the cleared dots. Once the clear is undone, this is the doily's DotList again until it is redone. */
+        DotList dots;
+        int[] indices;
+        int[] cutIndices;
+
+        // PARAMETERS : drawing parameters before and after the change.
+        int oldNumberOfSectors, newNumberOfSectors;
+        boolean oldReflectDrawnPoints, newReflectDrawnPoints;
+
+        // Memory used by the operation, computed when it is recorded.
+        long memoryUsage = 0;
+
+        Operation(Type type){
+            this.type = type;
+        }
+
+        void computeMemoryUsage(){
+            // Dot additions are merged and their dots live in the doily, so they are not counted (see undone()/redone()).
+            if (type == Type.ADD_DOTS){
+                return;
+            }
+            memoryUsage = OPERATION_BYTES;
+            if (dots != null){
+                memoryUsage += dots.size() * DOT_BYTES;
+            }
+            if (indices != null){
+                memoryUsage += indices.length * (long) Integer.BYTES;
+            }
+            if (cutIndices != null){
+                memoryUsage += cutIndices.length * (long) Integer.BYTES;
+            }
+        }
+    }
+
+    // Applied operations (most recent first), and undone operations which can be redone (next one first).
+    private final Deque<Operation> done = new ArrayDeque<>();
+    private final Deque<Operation> undone = new ArrayDeque<>();
+
+    // Dots of the undone ADD_DOTS operations, the next dot to redo at the top.
+    private final DotList undoneDots = new DotList();
+
+    // Number of operations applied since the doily was created, counting each added dot as one.
+    private long position = 0;
+
+    private long memoryLimit;
+    private long memoryUsage = 0;
+
+    public DoilyHistory(){
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    public DoilyHistory(long memoryLimit){
+        this.memoryLimit = memoryLimit;
+    }
+
+    public void recordAddDot(){
+        discardRedo();
+        Operation last = done.peekFirst();
+        if (last != null && last.type == Type.ADD_DOTS){
+            last.count++;
+        } else {
+            push(new Operation(Type.ADD_DOTS));
+        }
+        position++;
+    }
+
+    public void recordErase(DotList erasedDots, int[] indices, int[] cutIndices){
+        discardRedo();
+        Operation operation = new Operation(Type.ERASE);
+        operation.dots = erasedDots;
+        operation.indices = indices;
+        operation.cutIndices = cutIndices;
+        push(operation);
+        position++;
+    }
+
+    public void recordClear(DotList clearedDots){
+        discardRedo();
+        Operation operation = new Operation(Type.CLEAR);
+        operation.dots = clearedDots;
+        push(operation);
+        position++;
+    }
+
+    public void recordParameters(int oldNumberOfSectors, boolean oldReflectDrawnPoints, int newNumberOfSectors, boolean newReflectDrawnPoints){
+        // Consecutive parameter changes (e.g. dragging the number of sectors slider) are merged into one operation.
+        discardRedo();
+        Operation last = done.peekFirst();
+        if (last != null && last.type == Type.PARAMETERS){
+            last.newNumberOfSectors = newNumberOfSectors;
+            last.newReflectDrawnPoints = newReflectDrawnPoints;
+            return;
+        }
+        Operation operation = new Operation(Type.PARAMETERS);
+        operation.oldNumberOfSectors = oldNumberOfSectors;
+        operation.oldReflectDrawnPoints = oldReflectDrawnPoints;
+        operation.newNumberOfSectors = newNumberOfSectors;
+        operation.newReflectDrawnPoints = newReflectDrawnPoints;
+        push(operation);
+        position++;
+    }
+
+    public Operation peekUndo(){
+        // The next operation to undo, or null if there is none.
+        return done.peekFirst();
+    }
+
+    public Operation peekRedo(){
+        // The next operation to redo, or null if there is none.
+        return undone.peekFirst();
+    }
+
+    public void undone(int count){
+        /* Moves the next operation to undo onto the redo list, once it has been reverted by the caller. For ADD_DOTS
+           operations, count is the number of dots undone (which the caller moved onto getUndoneDots()). */
+        Operation operation = done.peekFirst();
+        if (operation.type == Type.ADD_DOTS && count < operation.count){
+            operation.count -= count;
+            operation = new Operation(Type.ADD_DOTS);
+        } else {
+            done.pollFirst();
+        }
+        operation.count = (operation.type == Type.ADD_DOTS) ? count : 1;
+
+        Operation next = undone.peekFirst();
+        if (operation.type == Type.ADD_DOTS && next != null && next.type == Type.ADD_DOTS){
+            next.count += operation.count;
+        } else {
+            undone.addFirst(operation);
+        }
+        position -= operation.count;
+        memoryUsage += count * (operation.type == Type.ADD_DOTS ? DOT_BYTES : 0);
+        compact();
+    }
+
+    public void redone(int count){
+        // Moves the next operation to redo back onto the undo list, once it has been re-applied by the caller.
+        Operation operation = undone.peekFirst();
+        if (operation.type == Type.ADD_DOTS && count < operation.count){
+            operation.count -= count;
+            operation = new Operation(Type.ADD_DOTS);
+        } else {
+            undone.pollFirst();
+        }
+        operation.count = (operation.type == Type.ADD_DOTS) ? count : 1;
+
+        Operation last = done.peekFirst();
+        if (operation.type == Type.ADD_DOTS && last != null && last.type == Type.ADD_DOTS){
+            last.count += operation.count;
+        } else {
+            done.addFirst(operation);
+        }
+        position += operation.count;
+        memoryUsage -= count * (operation.type == Type.ADD_DOTS ? DOT_BYTES : 0);
+    }
+
+    public void clear(){
+        // Forgets every operation. The current doily becomes the starting point of the history.
+        done.clear();
+        discardRedo();
+        memoryUsage = 0;
+    }
+
+    public DotList getUndoneDots() {
+        return undoneDots;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLastChangePosition(){
+        /* Position just after the most recent applied operation which was not a dot addition. Between that position
+           and the current one, dots were only pushed onto the doily, so anything computed from the doily's dots at a
+           position in between (e.g. a raster checkpoint) is still valid for the dots below it. */
+        Operation last = done.peekFirst();
+        if (last != null && last.type == Type.ADD_DOTS){
+            return position - last.count;
+        }
+        return position;
+    }
+
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        compact();
+    }
+
+    private void push(Operation operation){
+        operation.computeMemoryUsage();
+        done.addFirst(operation);
+        memoryUsage += operation.memoryUsage;
+        compact();
+    }
+
+    private void discardRedo(){
+        // A new operation makes the undone operations impossible to redo.
+        for (Operation operation : undone){
+            if (operation.type != Type.ADD_DOTS){
+                memoryUsage -= operation.memoryUsage;
+            }
+        }
+        memoryUsage -= undoneDots.size() * DOT_BYTES;
+        undone.clear();
+        undoneDots.clear();
+    }
+
+    private void compact(){
+        /* Forgets the oldest operations until the history fits in its memory limit. The latest operation is always
+           kept. If that is not enough (e.g. a lot of dots were undone), the operations furthest from being redone are
+           forgotten as well. Their dots are at the bottom of undoneDots. */
+        while (memoryUsage > memoryLimit && done.size() > 1){
+            memoryUsage -= done.pollLast().memoryUsage;
+        }
+        while (memoryUsage > memoryLimit && !undone.isEmpty()){
+            Operation operation = undone.peekLast();
+            if (operation.type == Type.ADD_DOTS){
+                // Only as many dots as needed, so a long run of undone dots is not forgotten all at once.
+                int count = (int) Math.min(operation.count, (memoryUsage - memoryLimit + DOT_BYTES - 1) / DOT_BYTES);
+                undoneDots.removeBottom(count);
+                memoryUsage -= count * DOT_BYTES;
+                operation.count -= count;
+                if (operation.count == 0){
+                    undone.pollLast();
+                }
+            } else {
+                memoryUsage -= undone.pollLast().memoryUsage;
+            }
+        }
+    }
+}
@@ -1,21 +1,53 @@
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Path2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Stack;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.imageio.ImageIO;
 
 public class DoilyPanel extends JPanel {
     // This is the Doily Panel. Takes care of the drawing of doilies.
 
+    /* Size of the canvas the dots are stored in : their distances and radii are in pixels of this canvas, whatever
+       the size of the panel (see updateView()). It is also the panel's preferred size. */
     public static final int WIDTH = 740;
     public static final int HEIGHT = 740;
+    /* While the panel is being resized, the buffer is stretched onto it rather than redrawn. It is only redrawn at the
+       new size once the panel has not been resized for RESIZE_SETTLE_DELAY milliseconds. */
+    private static final int RESIZE_SETTLE_DELAY = 200;
+    // Mouse positions received while drawing are turned into dots at most once per INPUT_FRAME_DELAY milliseconds.
+    private static final int INPUT_FRAME_DELAY = 16;
+    /* Hidden dots are looked for (see OcclusionPruner) once the doily has not changed for PRUNE_DELAY milliseconds,
+       if at least PRUNE_MIN_NEW_DOTS dots were added since the last time. */
+    private static final int PRUNE_DELAY = 1000;
+    private static final int PRUNE_MIN_NEW_DOTS = 1000;
+    // The performance overlay is refreshed at most once per OVERLAY_REFRESH_DELAY milliseconds.
+    private static final int OVERLAY_REFRESH_DELAY = 500;
+    // Buffers for the parameters next to the current ones are rendered once these stay the same for this long (in milliseconds).
+    private static final int SPECULATION_DELAY = 300;
+    // Size (in pixels of the panel) of the cells of the buffer redrawn after erasing.
+    private static final int REGION_CELL = 16;
 
-    private final int SECTOR_LINE_WIDTH = 2;
+    private static final ExecutorService speculationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Speculative renderer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
 
     //Drawing parameters. Updated by ControlPanel when gui components are interacted with.
     private int numberOfSectors;
@@ -25,19 +57,120 @@ public class DoilyPanel extends JPanel {
     private boolean drawSectorLines, reflectDrawnPoints;
     private boolean erasing = false;
 
+    // Center of the canvas. The dots are drawn around it, then mapped onto the panel by viewTransform.
     private Point centerPoint;
+    /* Maps the canvas onto the panel : scaled by viewScale so the canvas fits the panel, with the center of the canvas
+       at screenCenter. bufferView is the viewTransform panelImageBuffer was drawn with. */
+    private AffineTransform viewTransform = new AffineTransform();
+    private double viewScale = 1;
+    private Point screenCenter;
+    private AffineTransform bufferView;
+    private Timer resizeTimer;
 
     private BufferedImage panelImageBuffer;
+    // Number of dots (from the bottom of the dots stack) already drawn onto panelImageBuffer.
+    private int bufferedDotCount = 0;
+    private boolean bufferValid = false;
+    // History position (see DoilyHistory) at which the dots drawn onto panelImageBuffer were the bottom dots of the stack.
+    private long bufferedPosition = 0;
+    // Offscreen image holding a single sector, used when tile rendering is switched on.
+    private BufferedImage sectorTile;
+    private boolean tileRendering = false;
+    /* Whether dots are written straight into the pixels of the buffer and tile (see DotRasterizer) rather than drawn
+       with Java2D, and the rasterizers of the buffer and tile. Drawing dots gets cheaper, but painting the buffer onto
+       the screen may get dearer : an image whose pixels were taken is never cached in video memory again. */
+    private boolean directRasterizing = false;
+    private DotRasterizer bufferRasterizer, tileRasterizer;
+    /* Image as large as the buffer, which parts of it are drawn again onto : those covered by erased dots (see
+       redrawErasedDots()), or those showing the stroke being drawn (see paintOpenStroke()). And its rasterizer. */
+    private BufferedImage regionImage;
+    private DotRasterizer regionRasterizer;
+    /* Buffers drawn with other drawing parameters (see RenderCache). dotsVersion changes whenever dots are changed
+       other than by adding dots on top, which makes them out of date. */
+    private RenderCache renderCache;
+    private long dotsVersion = 0;
+    private Timer speculationTimer;
+    private boolean speculationRunning = false;
 
-
-    private Stack<Dot> dots;
-    private Stack<Dot> undoneDots;
-    private Stack<Dot> eraserDots;
+    /* The doily's dots and drawing parameters live in the engine, so other threads can snapshot and render it (see
+       DoilyEngine). The panel is its only writer, on the EDT : every modification of the dots goes through the engine,
+       while dots (always engine.getDots()) and the drawing parameter fields are the panel's own copies for reading. */
+    private DoilyEngine engine;
+    private DotList dots;
+    private DotList eraserDots;
+    // Spatial index over dots, used to find the dots to erase.
+    private PolarGrid dotIndex;
+    // Cached on-screen positions of the dots.
+    private DotGeometry dotGeometry;
+    // Operations applied to the doily, for undo/redo, and copies of the buffer so undoing does not redraw every dot.
+    private DoilyHistory history;
+    private RasterCheckpoints checkpoints;
+    // Mouse input : positions of the dots waiting to be added, flushed once per frame by inputTimer.
+    private StrokeSampler strokeSampler;
+    private List<Point> pendingDots;
+    private Timer inputTimer;
+    // Whether the next dot drawn continues the stroke of the previous one (the mouse is being dragged), which is then unfinished.
+    private boolean strokeInProgress = false;
+    /* Dots completely covered by later opaque dots, which are skipped when drawing (see OcclusionPruner), the pass
+       which found them, and the timer starting the next pass. pruneGeneration changes whenever they are dropped, so
+       a pass started before that is ignored. */
+    private BitSet hiddenDots;
+    private int hiddenDotCount = 0;
+    private OcclusionPruner.Result pruning;
+    private int pruneGeneration = 0;
+    private boolean pruneRunning = false;
+    private boolean pruningEnabled = true;
+    private Timer pruneTimer;
+    /* Timing of the hot paths and counters of the work done (see PerformanceMonitor), optionally shown over the doily.
+       The overlay is refreshed by overlayTimer, but only if something else was painted since its last refresh.
+       It is left out of the images taken with getBufferedImage(). */
+    private PerformanceMonitor performanceMonitor;
+    private boolean showPerformance = false;
+    private boolean paintingImage = false;
+    private Rectangle overlayBounds;
+    private Timer overlayTimer;
+    private long overlayPaintCount = 0;
     public DoilyPanel(){
         numberOfSectors = 4;
-        dots = new Stack<Dot>();
-        undoneDots = new Stack<Dot>();
-        eraserDots = new Stack<Dot>();
+        centerPoint = new Point(WIDTH / 2, HEIGHT / 2);
+        engine = new DoilyEngine(WIDTH, HEIGHT);
+        dots = engine.getDots();
+        eraserDots = new DotList();
+        dotIndex = new PolarGrid();
+        dotGeometry = new DotGeometry();
+        history = new DoilyHistory();
+        checkpoints = new RasterCheckpoints();
+        renderCache = new RenderCache();
+        strokeSampler = new StrokeSampler();
+        pendingDots = new ArrayList<>();
+        inputTimer = new Timer(INPUT_FRAME_DELAY, e -> flushInput());
+        inputTimer.setRepeats(false);
+        hiddenDots = new BitSet();
+        pruneTimer = new Timer(PRUNE_DELAY, e -> {
+            int prunedDotCount = (pruning == null) ? 0 : pruning.dotCount;
+            if (dots.size() - prunedDotCount >= PRUNE_MIN_NEW_DOTS){
+                pruneHiddenDots();
+            }
+        });
+        pruneTimer.setRepeats(false);
+        performanceMonitor = new PerformanceMonitor();
+        overlayTimer = new Timer(OVERLAY_REFRESH_DELAY, e -> {
+            long paintCount = performanceMonitor.getHistogram(PerformanceMonitor.Operation.PAINT).getCount();
+            if (paintCount > overlayPaintCount + 1 && overlayBounds != null){
+                overlayPaintCount = paintCount;
+                repaint(overlayBounds);
+            }
+        });
+        speculationTimer = new Timer(SPECULATION_DELAY, e -> renderSpeculatively());
+        speculationTimer.setRepeats(false);
+        resizeTimer = new Timer(RESIZE_SETTLE_DELAY, e -> repaint());
+        resizeTimer.setRepeats(false);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                resizeTimer.restart();
+            }
+        });
         setPreferredSize(new Dimension(WIDTH, HEIGHT));
 
         panelImageBuffer = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
@@ -46,6 +179,8 @@ public class DoilyPanel extends JPanel {
         penColor = Color.RED;
         drawSectorLines = true;
         reflectDrawnPoints = false;
+        engine.setParameters(numberOfSectors, reflectDrawnPoints);
+        engine.setDrawSectorLines(drawSectorLines);
         // The angle step is the full radian span divided by the number of numberOfSectors
         angleStep = 2*Math.PI/ numberOfSectors;
 
@@ -57,87 +192,800 @@ public class DoilyPanel extends JPanel {
     }
 
     public void paintComponent(Graphics g){
-        super.paintComponent(g);
+        // The buffer is opaque and covers the whole panel, so there is no background to clear first.
+        DoilyEvents.Paint event = new DoilyEvents.Paint();
+        event.begin();
+        long startTime = System.nanoTime();
+        long dotsDrawn = performanceMonitor.getDotsDrawn();
         Graphics2D g2d = (Graphics2D) g;
+        // Only the area within the clip needs painting (see repaintRegions()).
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null){
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
 
-        // Create a background
-        g2d.setColor(Color.black);
-        g2d.fillRect(0, 0, getWidth(), getHeight());
-        centerPoint = new Point(getWidth()/2, getHeight()/2);
+        updateView();
+        dotGeometry.update(dots, numberOfSectors, centerPoint);
+
+        /* The dots are kept rasterized in panelImageBuffer. It is only rebuilt from scratch when something
+           invalidates it (sector count, reflection, panel size or the history of dots changing). Otherwise only the
+           dots added since the last paint are drawn onto it, so painting does not get slower as the doily grows. */
+        if (panelImageBuffer == null || panelImageBuffer.getWidth() != getWidth() || panelImageBuffer.getHeight() != getHeight()){
+            if (bufferValid && resizeTimer.isRunning()){
+                paintStretchedBuffer(g2d, clip);
+                if (drawSectorLines){
+                    drawSectorLines(g2d);
+                }
+                event.commit();
+                performanceMonitor.record(PerformanceMonitor.Operation.PAINT, System.nanoTime() - startTime);
+                return;
+            }
+            invalidateBuffer();
+        }
+        event.rebuilt = !bufferValid;
+        int rasterizedDotCount = getRasterizedDotCount();
+        if (!bufferValid){
+            rebuildBuffer(rasterizedDotCount);
+        } else if (bufferedDotCount < rasterizedDotCount){
+            rasterizeDots(bufferedDotCount, rasterizedDotCount);
+        }
+        bufferedPosition = history.getPosition();
+        checkpoints.capture(panelImageBuffer, bufferedDotCount, bufferedPosition, getRenderParameters());
+        trimCheckpoints();
+
+        BufferedImage painted = (bufferedDotCount < dots.size()) ? paintOpenStroke(clip) : panelImageBuffer;
+        g2d.drawImage(painted, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height,
+                clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, null);
+
+        // Sector lines are drawn on top of the buffer, so showing/hiding them never requires a rebuild.
+        if (drawSectorLines){
+            drawSectorLines(g2d);
+        }
+
+        event.dots = dots.size();
+        event.sectors = numberOfSectors;
+        event.dotsDrawn = (int) Math.min(Integer.MAX_VALUE, performanceMonitor.getDotsDrawn() - dotsDrawn);
+        event.commit();
+        performanceMonitor.record(PerformanceMonitor.Operation.PAINT, System.nanoTime() - startTime);
+        if (showPerformance && !paintingImage){
+            overlayBounds = performanceMonitor.paintOverlay(g2d, dots.size(), numberOfSectors, hiddenDotCount);
+        }
+    }
+
+    private int getRasterizedDotCount(){
+        /* The number of dots to draw onto the buffer : all of them, but for the stroke being drawn if it is translucent.
+           Its dots come in a few at a time, and drawing the new ones would start the line again from the last dot
+           drawn, drawing its round end (and the joint) twice, which shows through translucent colours. So it is only
+           drawn onto the buffer once finished, in one go, and until then over a copy of the buffer on every paint. */
+        int last = dots.size() - 1;
+        if (!strokeInProgress || last < 0 || (dots.getColor(last) >>> 24) == 0xff){
+            return dots.size();
+        }
+        return dots.getStrokeStart(last);
+    }
+
+    private BufferedImage paintOpenStroke(Rectangle clip){
+        /* Returns regionImage holding the buffer within clip, with the dots not drawn onto the buffer yet (the stroke
+           being drawn, see getRasterizedDotCount()) drawn over it, exactly as they will be drawn onto the buffer. */
+        prepareRegionImage();
+        Rectangle area = clip.intersection(new Rectangle(0, 0, panelImageBuffer.getWidth(), panelImageBuffer.getHeight()));
+        if (!area.isEmpty()){
+            regionImage.getRaster().setRect(panelImageBuffer.getRaster().createChild(area.x, area.y, area.width, area.height, area.x, area.y, null));
+        }
+        drawSectors(regionImage, directRasterizing ? regionRasterizer : null, dots, dotGeometry, getSkippedDots(),
+                numberOfSectors, reflectDrawnPoints, viewTransform, centerPoint, bufferedDotCount, dots.size());
+        return regionImage;
+    }
+
+    private void prepareRegionImage(){
+        // (Re)creates regionImage as large as the buffer, and its rasterizer if the dots are rasterized directly.
+        if (regionImage == null || regionImage.getWidth() != panelImageBuffer.getWidth() || regionImage.getHeight() != panelImageBuffer.getHeight()){
+            regionImage = new BufferedImage(panelImageBuffer.getWidth(), panelImageBuffer.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            regionRasterizer = null;
+        }
+        if (directRasterizing && regionRasterizer == null){
+            regionRasterizer = new DotRasterizer(regionImage);
+        }
+    }
+
+    private void updateView(){
+        // Fits the canvas to the current size of the panel (see viewTransform).
+        screenCenter = new Point(getWidth()/2, getHeight()/2);
+        viewScale = (getWidth() > 0 && getHeight() > 0) ? Math.min((double) getWidth() / WIDTH, (double) getHeight() / HEIGHT) : 1;
+        viewTransform = new AffineTransform();
+        viewTransform.translate(screenCenter.x, screenCenter.y);
+        viewTransform.scale(viewScale, viewScale);
+        viewTransform.translate(-centerPoint.x, -centerPoint.y);
+    }
+
+    private void paintStretchedBuffer(Graphics2D g2d, Rectangle clip){
+        // Draws the buffer, drawn for the previous size of the panel, scaled to the current size.
+        AffineTransform stretch = new AffineTransform(viewTransform);
+        try {
+            stretch.concatenate(bufferView.createInverse());
+        } catch (NoninvertibleTransformException e){
+            return;
+        }
+        Graphics2D stretched = (Graphics2D) g2d.create();
+        stretched.setColor(Color.black);
+        stretched.fillRect(clip.x, clip.y, clip.width, clip.height);
+        stretched.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        stretched.drawImage(panelImageBuffer, stretch, null);
+        stretched.dispose();
+    }
+
+    private Point toCanvas(int x, int y){
+        // Converts a position on the panel to the canvas the dots are in.
+        updateView();
+        return new Point((int) Math.round((x - screenCenter.x) / viewScale) + centerPoint.x,
+                (int) Math.round((y - screenCenter.y) / viewScale) + centerPoint.y);
+    }
+
+    private BitSet getSkippedDots(){
+        /* The dots skipped when drawing, as they are covered by later dots, or null. The OcclusionPruner finds them on
+           the pixels of the canvas, so they are only skipped when the canvas is drawn at its own size : scaled, the
+           edges of a hidden dot could show between the dots covering it. */
+        return (viewScale == 1 && hiddenDotCount > 0) ? hiddenDots : null;
+    }
+
+    private void drawSectorLines(Graphics2D g2d){
+        // Draws one white line per sector, starting at the center of the panel.
+        AffineTransform oldTransform = g2d.getTransform();
+        Stroke oldStroke = g2d.getStroke();
 
         int lineLength = (int) (getWidth()/2 * 1.4);
 
         if (numberOfSectors % 2 == 1){
-            g2d.rotate(- angleStep/2, centerPoint.x, centerPoint.y);
+            g2d.rotate(- angleStep/2, screenCenter.x, screenCenter.y);
         }
 
+        g2d.setColor(Color.white);
+        g2d.setStroke(new BasicStroke((float) (DoilyRenderer.SECTOR_LINE_WIDTH * viewScale)));
         for (int i = 0; i < numberOfSectors; i++){
             double angle = i * angleStep;
-            double xNorm = Math.cos(angle);
-            double yNorm = Math.sin(angle);
-            int x = (int) Math.round(xNorm * lineLength);
-            int y = (int) Math.round(yNorm * lineLength);
-            if (drawSectorLines){
-                g2d.setColor(Color.white);
-                g2d.setStroke(new BasicStroke(SECTOR_LINE_WIDTH));
-                g2d.drawLine(centerPoint.x, centerPoint.y, centerPoint.x + x, centerPoint.y + y);
+            int x = (int) Math.round(Math.cos(angle) * lineLength);
+            int y = (int) Math.round(Math.sin(angle) * lineLength);
+            g2d.drawLine(screenCenter.x, screenCenter.y, screenCenter.x + x, screenCenter.y + y);
+        }
+
+        g2d.setStroke(oldStroke);
+        g2d.setTransform(oldTransform);
+    }
+
+    private void invalidateBuffer(){
+        // Marks the buffer as out of date. It will be rebuilt from scratch on the next paint.
+        bufferValid = false;
+    }
+
+    private String getRenderParameters(){
+        return getRenderParameters(numberOfSectors, reflectDrawnPoints);
+    }
+
+    private String getRenderParameters(int numberOfSectors, boolean reflectDrawnPoints){
+        /* Everything besides the dots which affects the content of the buffer. Checkpoints and the render cache only
+           match identical parameters. Sector lines are drawn over the buffer, so they do not matter. */
+        return numberOfSectors + ":" + reflectDrawnPoints + ":" + tileRendering + ":" + directRasterizing + ":"
+                + getWidth() + "x" + getHeight();
+    }
+
+    private void updateBufferAfterHistoryChange(){
+        /* Called after undoing/redoing. If only dots were added since the buffer was drawn, it is still valid and the
+           new dots are drawn on the next paint. Otherwise the most recent valid checkpoint is restored, so only the
+           dots added after it need drawing, and the buffer is only rebuilt from scratch if there is none. */
+        long position = history.getPosition();
+        long lastChangePosition = history.getLastChangePosition();
+        if (bufferValid && bufferedPosition <= position && lastChangePosition <= bufferedPosition && bufferedDotCount <= dots.size()){
+            return;
+        }
+        int restoredDotCount = (panelImageBuffer == null) ? -1
+                : checkpoints.restore(panelImageBuffer, position, lastChangePosition, getRenderParameters());
+        if (restoredDotCount >= 0){
+            bufferedDotCount = restoredDotCount;
+            bufferedPosition = position;
+            bufferValid = true;
+        } else {
+            invalidateBuffer();
+        }
+    }
+
+    private void rebuildBuffer(int to){
+        /* Takes the buffer for the current parameters from the render cache if it has one, only drawing the dots added
+           since. Otherwise recreates the buffer if the panel was resized, then redraws every dot onto it. Only the dots
+           below to are drawn (see getRasterizedDotCount()). */
+        speculationTimer.restart();
+        RenderCache.Entry cached = renderCache.take(getRenderParameters());
+        // A cached buffer ending in the middle of a stroke would have the rest of the line start again from its last dot.
+        if (cached != null && cached.dotCount <= to && !dots.continuesStroke(cached.dotCount)){
+            panelImageBuffer = cached.image;
+            bufferView = new AffineTransform(viewTransform);
+            bufferedDotCount = cached.dotCount;
+            bufferValid = true;
+            if (bufferedDotCount < to){
+                rasterizeDots(bufferedDotCount, to);
             }
+            return;
+        }
+        if (panelImageBuffer == null || panelImageBuffer.getWidth() != getWidth() || panelImageBuffer.getHeight() != getHeight()){
+            panelImageBuffer = new BufferedImage(Math.max(1, getWidth()), Math.max(1, getHeight()), BufferedImage.TYPE_INT_ARGB);
+        }
+        bufferView = new AffineTransform(viewTransform);
 
-            // Save state so it can be restored later.
-            Color oldColor = g.getColor();
-            AffineTransform oldTransform = g2d.getTransform();
+        Graphics2D g2d = panelImageBuffer.createGraphics();
+        // Create a background
+        g2d.setColor(Color.black);
+        g2d.fillRect(0, 0, panelImageBuffer.getWidth(), panelImageBuffer.getHeight());
+        g2d.dispose();
 
+        if (tileRendering){
+            rasterizeDotsTiled(to);
+        } else {
+            rasterizeDots(0, to);
+        }
+        bufferValid = true;
+    }
+
+    private void rasterizeDots(int from, int to){
+        // Draws the dots in [from, to) onto the buffer, once per sector.
+        DoilyEvents.DrawDots event = new DoilyEvents.DrawDots();
+        event.begin();
+        long startTime = System.nanoTime();
+        if (directRasterizing && (bufferRasterizer == null || bufferRasterizer.getImage() != panelImageBuffer)){
+            bufferRasterizer = new DotRasterizer(panelImageBuffer);
+        }
+        drawSectors(panelImageBuffer, directRasterizing ? bufferRasterizer : null, dots, dotGeometry, getSkippedDots(),
+                numberOfSectors, reflectDrawnPoints, viewTransform, centerPoint, from, to);
+        bufferedDotCount = to;
+        recordDrawDots(event, startTime, from, to, false);
+    }
+
+    static void drawSectors(BufferedImage image, DotRasterizer rasterizer, DotList dots, DotGeometry geometry, BitSet hidden,
+                            int numberOfSectors, boolean reflectDrawnPoints, AffineTransform view, Point center, int from, int to){
+        /* Draws the dots in [from, to) onto image, once per sector : with rasterizer (whose image it must be) if it is
+           not null, otherwise with Java2D. view maps the canvas onto image, and geometry must be up to date for the
+           dots. Only uses its arguments, so buffers for other drawing parameters can be drawn off the EDT.
+           Exports and the RenderService draw with a DoilyRenderer instead (see DoilyEngine for why the panel does not). */
+        double angleStep = 2*Math.PI/ numberOfSectors;
+        Graphics2D g2d = image.createGraphics();
+        g2d.transform(view);
+
+        if (numberOfSectors % 2 == 1){
+            g2d.rotate(- angleStep/2, center.x, center.y);
+        }
+
+        AffineTransform baseTransform = g2d.getTransform();
+        for (int i = 0; i < numberOfSectors; i++){
             //Rotate graphics so dots are drawn in correct sector.
-            g2d.rotate(angle, centerPoint.x, centerPoint.y);
-            drawDots(dots, g, reflectDrawnPoints);
+            g2d.setTransform(baseTransform);
+            g2d.rotate(i * angleStep, center.x, center.y);
+            if (rasterizer != null){
+                drawDots(dots, geometry, hidden, from, to, rasterizer, g2d.getTransform(), reflectDrawnPoints);
+            } else {
+                drawDots(dots, geometry, hidden, from, to, g2d, reflectDrawnPoints);
+            }
+        }
+        g2d.dispose();
+    }
 
-            //Restore previous state;
-            g.setColor(oldColor);
-            g2d.setTransform(oldTransform);
+    private void drawTileDots(int from, int to, Graphics2D tileGraphics, AffineTransform rotation){
+        // Draws the dots in [from, to) into the sector tile, rotated by rotation.
+        if (directRasterizing){
+            drawDots(dots, dotGeometry, getSkippedDots(), from, to, tileRasterizer, rotation, reflectDrawnPoints);
+        } else {
+            tileGraphics.setTransform(rotation);
+            drawDots(dots, dotGeometry, getSkippedDots(), from, to, tileGraphics, reflectDrawnPoints);
         }
+    }
 
+    private void recordDrawDots(DoilyEvents.DrawDots event, long startTime, int from, int to, boolean tiled){
+        // Records the drawing of the dots in [from, to) onto the buffer, which started at startTime (see PerformanceMonitor).
+        int drawn = to - from;
+        BitSet skipped = getSkippedDots();
+        if (skipped != null && from < to){
+            drawn -= skipped.get(from, to).cardinality();
+        }
+        performanceMonitor.countDotsDrawn((long) drawn * numberOfSectors * (reflectDrawnPoints ? 2 : 1));
+        event.from = from;
+        event.to = to;
+        event.sectors = numberOfSectors;
+        event.tiled = tiled;
+        event.commit();
+        performanceMonitor.record(PerformanceMonitor.Operation.DRAW_DOTS, System.nanoTime() - startTime);
+    }
+
+    private void rasterizeDotsTiled(int to){
+        /* Tile rendering mode. Instead of drawing every dot once per sector, the dots are drawn once into a single
+           sector ("tile"), which is then stamped onto the buffer once per sector with a rotation and a wedge shaped clip.
+           Dots close to the edge of the sector spill into the neighbouring sectors, so those few dots are also drawn
+           into the tile at the neighbouring rotations. Without this they would be cut off by the wedge clip. */
+        DoilyEvents.DrawDots event = new DoilyEvents.DrawDots();
+        event.begin();
+        long startTime = System.nanoTime();
+        // Only the part of the sector that can be rotated onto the panel matters, which is within half a diagonal of the center.
+        double reach = Math.hypot(panelImageBuffer.getWidth(), panelImageBuffer.getHeight()) / 2 + 1;
+
+        // The wedge is widened by about one pixel on each side so neighbouring stamps overlap rather than leave a seam.
+        double halfAngle = angleStep / 2 + 1.0 / reach;
+        // The arc is approximated by segments of at most 30 degrees, so push its points out far enough to cover the reach.
+        double wedgeRadius = reach / Math.cos(Math.PI / 12);
+        Path2D wedge = new Path2D.Double();
+        wedge.moveTo(screenCenter.x, screenCenter.y);
+        int arcSteps = (int) Math.ceil(halfAngle / (Math.PI / 6));
+        for (int i = 0; i <= arcSteps * 2; i++){
+            double angle = angleStep / 2 - halfAngle + i * halfAngle / arcSteps;
+            wedge.lineTo(screenCenter.x + Math.cos(angle) * wedgeRadius, screenCenter.y + Math.sin(angle) * wedgeRadius);
+        }
+        wedge.closePath();
+
+        // The tile covers the bounding box of the wedge (which may extend past the panel) rather than the whole panel.
+        Rectangle tileBounds = wedge.getBounds().intersection(new Rectangle(
+                (int) Math.floor(screenCenter.x - reach), (int) Math.floor(screenCenter.y - reach),
+                (int) Math.ceil(2 * reach) + 1, (int) Math.ceil(2 * reach) + 1));
+        if (sectorTile == null || sectorTile.getWidth() != tileBounds.width || sectorTile.getHeight() != tileBounds.height){
+            sectorTile = new BufferedImage(Math.max(1, tileBounds.width), Math.max(1, tileBounds.height), BufferedImage.TYPE_INT_ARGB);
+        }
+
+        Graphics2D tileGraphics = sectorTile.createGraphics();
+        tileGraphics.setComposite(AlphaComposite.Clear);
+        tileGraphics.fillRect(0, 0, sectorTile.getWidth(), sectorTile.getHeight());
+        tileGraphics.setComposite(AlphaComposite.SrcOver);
+        tileGraphics.translate(-tileBounds.x, -tileBounds.y);
+
+        // rotations[k] rotates by (k - (numberOfSectors - 1)) sectors, so the tile's own sector is in the middle.
+        AffineTransform baseTransform = tileGraphics.getTransform();
+        AffineTransform[] rotations = new AffineTransform[2 * numberOfSectors - 1];
+        for (int k = 0; k < rotations.length; k++){
+            rotations[k] = new AffineTransform(baseTransform);
+            rotations[k].rotate((k - (numberOfSectors - 1)) * angleStep, screenCenter.x, screenCenter.y);
+            rotations[k].concatenate(viewTransform);
+        }
+        if (directRasterizing && (tileRasterizer == null || tileRasterizer.getImage() != sectorTile)){
+            tileRasterizer = new DotRasterizer(sectorTile);
+        }
+
+        // Strokes are drawn whole, into as many neighbouring sectors as their furthest spilling dot. Only the dots below to are drawn.
+        BitSet skipped = getSkippedDots();
+        for (int start = 0, end; start < to; start = end){
+            end = dots.getStrokeEnd(start, to);
+            if (skipped != null && skipped.get(start)){
+                continue;
+            }
+            int spill = 0;
+            for (int i = start; i < end; i++){
+                spill = Math.max(spill, getSectorSpill(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i)));
+            }
+            for (int k = 1; k <= spill; k++){
+                drawTileDots(start, end, tileGraphics, rotations[numberOfSectors - 1 - k]);
+                drawTileDots(start, end, tileGraphics, rotations[numberOfSectors - 1 + k]);
+            }
+            drawTileDots(start, end, tileGraphics, rotations[numberOfSectors - 1]);
+        }
+        tileGraphics.dispose();
+
+        Graphics2D g2d = panelImageBuffer.createGraphics();
+        if (numberOfSectors % 2 == 1){
+            g2d.rotate(- angleStep/2, screenCenter.x, screenCenter.y);
+        }
+        AffineTransform stampTransform = g2d.getTransform();
+        for (int i = 0; i < numberOfSectors; i++){
+            g2d.setTransform(stampTransform);
+            g2d.rotate(i * angleStep, screenCenter.x, screenCenter.y);
+            g2d.setClip(wedge);
+            g2d.drawImage(sectorTile, tileBounds.x, tileBounds.y, null);
+        }
+        g2d.dispose();
+
+        bufferedDotCount = to;
+        recordDrawDots(event, startTime, 0, to, true);
+    }
+
+    private int getSectorSpill(double polar, int distFromCenter, int radius){
+        // Returns how many neighbouring sectors (on each side) the dot reaches into. Most dots stay within their own sector.
+        // The drawn oval is offset from the dot's polar position, so allow for a little more than its size.
+        double extent = radius * 1.25 + Math.max(1, 1 / viewScale);
+        if (distFromCenter <= extent){
+            return numberOfSectors - 1;
+        }
+        double angle = polar * angleStep;
+        double edgeAngle = Math.min(angle, angleStep - angle);
+        if (edgeAngle < Math.PI / 2 && distFromCenter * Math.sin(edgeAngle) >= extent){
+            return 0;
+        }
+        double angularExtent = Math.asin(extent / distFromCenter);
+        int spill = (int) Math.ceil((angularExtent - edgeAngle) / angleStep);
+        return Math.min(spill, numberOfSectors - 1);
     }
 
     public void updateErasing(){
         /*
-            Erasing works using a stack. When the user draws with an eraser, the dots created are pushed onto the eraserDots stack.
-            In this function, we create a new stack called newDots. This stack is filled by the stack of dots (the one we use to keep
-            track of the current Doily). We pop the dots off the old stack and push them onto the new stack if they do not overlap with
-            an eraser dot.
-            Every time an eraser dot is checked, we pop it off
-
+            When the user draws with an eraser, the dots created are pushed onto the eraserDots list.
+            In this function, all the pending eraser dots are processed in a single pass : every dot of the current Doily
+            overlapping with an eraser dot (or its reflection) is marked, then all the marked dots are removed at once.
+            The dotIndex spatial index is used so each eraser dot only tests the dots close to it.
          */
-        Stack<Dot> newDots = new Stack<>();
-        while (!eraserDots.empty()){
-            Dot eraserDot = eraserDots.pop();
-            Dot reflectedEraserDot = null;
+        if (eraserDots.isEmpty()){
+            return;
+        }
+        DoilyEvents.Erase event = new DoilyEvents.Erase();
+        event.begin();
+        long startTime = System.nanoTime();
+        event.dots = dots.size();
+        event.eraserDots = eraserDots.size();
+
+        dotIndex.update(dots);
+        BitSet erased = new BitSet(dots.size());
+        long tested = 0;
+        DotList.Cursor eraserCursor = eraserDots.cursor();
+        while (eraserCursor.next()){
+            double eraserPolar = eraserCursor.getPolar();
+            int eraserDist = eraserCursor.getDistFromCenter();
+            int eraserRadius = eraserCursor.getRadius();
+            tested += dotIndex.markOverlapping(dots, eraserPolar, eraserDist, eraserRadius, erased);
 
             // If we reflect drawn points, don't forget to reflect the eraser dot too !
             if (reflectDrawnPoints){
-                reflectedEraserDot =  new Dot(eraserDot);
-                reflectedEraserDot.setPolar(1.0 - eraserDot.getPolar());
+                tested += dotIndex.markOverlapping(dots, 1.0 - eraserPolar, eraserDist, eraserRadius, erased);
+            }
+        }
+        eraserDots.clear();
+
+        // Removing dots shifts the ones above them, so the index and the buffer only need rebuilding if something was erased.
+        if (erased.isEmpty()){
+            recordErase(event, startTime, tested, 0);
+            return;
+        }
+        /* The erased dots are kept in the history, along with their position in the stack, so the erase can be undone.
+           Erasing dots cuts their strokes : the kept dots which continued them are remembered, to join them back on undo.
+           The lines to those dots (and from the dots before them) disappear too, so they are repainted as well. */
+        int[] erasedIndices = erased.stream().toArray();
+        DotList erasedDots = new DotList(erasedIndices.length);
+        DotList repainted = new DotList(erasedIndices.length);
+        int[] cutIndices = new int[erasedIndices.length];
+        int cutCount = 0;
+        for (int i : erasedIndices){
+            erasedDots.push(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i), dots.getColor(i), dots.isJoined(i));
+            // The repainted dots are joined like the lines which disappear (see redrawErasedDots()).
+            if (i > 0 && dots.isJoined(i) && !erased.get(i - 1)){
+                repainted.push(dots.getPolar(i - 1), dots.getDistFromCenter(i - 1), dots.getRadius(i - 1), dots.getColor(i - 1));
+            }
+            repainted.push(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i), dots.getColor(i), dots.isJoined(i));
+            if (i + 1 < dots.size() && dots.isJoined(i + 1) && !erased.get(i + 1)){
+                cutIndices[cutCount++] = i + 1;
+                repainted.push(dots.getPolar(i + 1), dots.getDistFromCenter(i + 1), dots.getRadius(i + 1), dots.getColor(i + 1), true);
+            }
+        }
+        beforeOperation();
+        history.recordErase(erasedDots, erasedIndices, Arrays.copyOf(cutIndices, cutCount));
+
+        // If the buffer holds every dot, only the parts of it the erased dots covered are drawn again.
+        boolean redrawRegions = isBufferUpToDate();
+        dotGeometry.removeMarked(erased);
+        engine.removeMarked(erased);
+        dotsChanged();
+        dropHiddenDots();
+        dotIndex.invalidate();
+        if (!redrawRegions || !redrawErasedDots(repainted)){
+            invalidateBuffer();
+        }
+        repaintDots(repainted, 0, repainted.size());
+        recordErase(event, startTime, tested, erasedIndices.length);
+    }
+
+    private void recordErase(DoilyEvents.Erase event, long startTime, long tested, int erased){
+        // Records a batch of eraser dots, which started at startTime (see PerformanceMonitor).
+        performanceMonitor.countErase(tested, erased);
+        event.candidatesTested = tested;
+        event.dotsErased = erased;
+        event.commit();
+        performanceMonitor.record(PerformanceMonitor.Operation.ERASE, System.nanoTime() - startTime);
+    }
+
+    private void repaintDots(DotList list, int from, int to){
+        // Repaints only the part of the panel covered by the dots in [from, to) of list. Used when dots are added or erased.
+        repaintRegions(getDotRegions(list, from, to));
+    }
+
+    private void repaintRegions(Rectangle[] regions){
+        /* Repaints the union of regions. Painting only copies the buffer, so a single paint of the union costs less
+           than painting each region on its own. */
+        Rectangle union = null;
+        for (Rectangle region : regions){
+            union = (union == null) ? new Rectangle(region) : union.union(region);
+        }
+        if (union != null){
+            repaint(union);
+        }
+    }
+
+    private Rectangle[] getDotRegions(DotList list, int from, int to){
+        /* The parts of the panel covered by the dots in [from, to) of list : their bounds in each sector (and for their
+           reflections), reflections after the sectors, leaving out those outside the panel. The copies of a dot are
+           spread all around the doily, so the union of these regions is often most of the panel. */
+        if (from >= to || screenCenter == null){
+            return new Rectangle[0];
+        }
+        double offset = (numberOfSectors % 2 == 1) ? - angleStep/2 : 0;
+        int copies = reflectDrawnPoints ? 2 * numberOfSectors : numberOfSectors;
+        Rectangle[] regions = new Rectangle[copies];
+        DotList.Cursor d = list.cursor(from, to);
+        while (d.next()){
+            /* The oval is drawn within a radius of its polar position (its top left corner is offset from that position,
+               or is that position for reflections), then rotated. Allow for the rotation of its bounding box and rounding. */
+            int margin = (int) Math.ceil(Math.sqrt(2) * (d.getRadius() + 2) * viewScale);
+            for (int i = 0; i < numberOfSectors; i++){
+                regions[i] = addDotBounds(regions[i], (d.getPolar() + i) * angleStep + offset, d.getDistFromCenter(), margin);
+                if (reflectDrawnPoints){
+                    regions[numberOfSectors + i] = addDotBounds(regions[numberOfSectors + i], (1.0 - d.getPolar() + i) * angleStep + offset, d.getDistFromCenter(), margin);
+                }
             }
+        }
 
-            while(!dots.empty()){
-                boolean overlapping = false;
-                Dot dot = dots.pop();
-                if (eraserDot.overlapping(dot)){
-                    overlapping = true;
+        Rectangle panelBounds = new Rectangle(0, 0, getWidth(), getHeight());
+        int count = 0;
+        for (int i = 0; i < copies; i++){
+            Rectangle region = regions[i].intersection(panelBounds);
+            if (!region.isEmpty()){
+                regions[count++] = region;
+            }
+        }
+        return Arrays.copyOf(regions, count);
+    }
+
+    private boolean isBufferUpToDate(){
+        // Whether the buffer holds every dot, drawn for the current size of the panel.
+        return bufferValid && panelImageBuffer != null && bufferedDotCount == dots.size()
+                && panelImageBuffer.getWidth() == getWidth() && panelImageBuffer.getHeight() == getHeight()
+                && viewTransform != null && viewTransform.equals(bufferView);
+    }
+
+    private boolean redrawErasedDots(DotList erased){
+        /* Brings the buffer up to date after the given dots were erased (with the dots their strokes were cut at), by
+           only drawing again the parts of it they covered : the cells of REGION_CELL pixels under their bounds, in
+           every sector. The strokes crossing those cells are drawn again, only in the sectors where they cross them,
+           onto regionImage (cleared within the cells), which is then copied into the buffer within the cells.
+           regionImage is as large as the buffer and drawn with the same transform, so the pixels are exactly those a
+           rebuild would give : a clip, or an image moved to the cells, make Java2D round rotated shapes slightly
+           differently. Returns false, leaving the buffer alone, if the buffer is drawn in tiles (a partial redraw
+           would not reproduce the seams between tiles). */
+        if (tileRendering){
+            return false;
+        }
+        DoilyEvents.DrawDots event = new DoilyEvents.DrawDots();
+        event.begin();
+        long startTime = System.nanoTime();
+        dotGeometry.update(dots, numberOfSectors, centerPoint);
+        int columns = (getWidth() + REGION_CELL - 1) / REGION_CELL, rows = (getHeight() + REGION_CELL - 1) / REGION_CELL;
+        boolean[] cells = new boolean[columns * rows];
+        double offset = (numberOfSectors % 2 == 1) ? - angleStep/2 : 0;
+        for (int j = 0; j < erased.size(); j++){
+            /* Same bounds as getDotRegions(), for each copy of the dot on its own, or with the dot before it if they are
+               joined : the line between them can be much longer than the dots are large. */
+            int margin = (int) Math.ceil(Math.sqrt(2) * (erased.getRadius(j) + 2) * viewScale);
+            int previous = (j > 0 && erased.isJoined(j)) ? j - 1 : j;
+            for (int i = 0; i < numberOfSectors; i++){
+                markCells(cells, columns, rows, addDotBounds(addDotBounds(null,
+                        (erased.getPolar(previous) + i) * angleStep + offset, erased.getDistFromCenter(previous), margin),
+                        (erased.getPolar(j) + i) * angleStep + offset, erased.getDistFromCenter(j), margin));
+                if (reflectDrawnPoints){
+                    markCells(cells, columns, rows, addDotBounds(addDotBounds(null,
+                            (1.0 - erased.getPolar(previous) + i) * angleStep + offset, erased.getDistFromCenter(previous), margin),
+                            (1.0 - erased.getPolar(j) + i) * angleStep + offset, erased.getDistFromCenter(j), margin));
+                }
+            }
+        }
+        // The marked cells, as runs of cells along each row.
+        List<Rectangle> runs = new ArrayList<>();
+        Rectangle panelBounds = new Rectangle(0, 0, getWidth(), getHeight());
+        for (int row = 0; row < rows; row++){
+            for (int column = 0; column < columns; column++){
+                if (cells[row * columns + column]){
+                    int first = column;
+                    while (column + 1 < columns && cells[row * columns + column + 1]){
+                        column++;
+                    }
+                    runs.add(new Rectangle(first * REGION_CELL, row * REGION_CELL, (column - first + 1) * REGION_CELL, REGION_CELL).intersection(panelBounds));
+                }
+            }
+        }
+
+        // Transform from the canvas to the panel for each sector, as drawSectors() draws them.
+        AffineTransform[] sectorTransforms = new AffineTransform[numberOfSectors];
+        for (int k = 0; k < numberOfSectors; k++){
+            sectorTransforms[k] = new AffineTransform(viewTransform);
+            if (numberOfSectors % 2 == 1){
+                sectorTransforms[k].rotate(- angleStep/2, centerPoint.x, centerPoint.y);
+            }
+            sectorTransforms[k].rotate(k * angleStep, centerPoint.x, centerPoint.y);
+        }
+
+        // The strokes to draw again in each sector.
+        DotList[] redrawn = new DotList[numberOfSectors];
+        double[] centers = new double[4];
+        for (int start = 0, end; start < dots.size(); start = end){
+            end = dots.getStrokeEnd(start, dots.size());
+            double margin = (dots.getRadius(start) / 2.0 + 2) * viewScale;
+            for (int k = 0; k < numberOfSectors; k++){
+                boolean crossed = false;
+                for (int pass = 0; pass < (reflectDrawnPoints ? 2 : 1) && !crossed; pass++){
+                    for (int i = start; i < end && !crossed; i++){
+                        // The segment from the previous dot of the stroke (or the dot on its own) lies within the bounds of both dots.
+                        int previous = Math.max(start, i - 1);
+                        double half = dots.getRadius(i) / 2.0;
+                        centers[0] = (pass == 0 ? dotGeometry.getX(previous) : dotGeometry.getMirroredX(previous)) + half;
+                        centers[1] = (pass == 0 ? dotGeometry.getY(previous) : dotGeometry.getMirroredY(previous)) + half;
+                        centers[2] = (pass == 0 ? dotGeometry.getX(i) : dotGeometry.getMirroredX(i)) + half;
+                        centers[3] = (pass == 0 ? dotGeometry.getY(i) : dotGeometry.getMirroredY(i)) + half;
+                        sectorTransforms[k].transform(centers, 0, centers, 0, 2);
+                        crossed = isAnyCellMarked(cells, columns, rows, Math.min(centers[0], centers[2]) - margin,
+                                Math.min(centers[1], centers[3]) - margin, Math.max(centers[0], centers[2]) + margin,
+                                Math.max(centers[1], centers[3]) + margin);
+                    }
                 }
-                if (reflectedEraserDot != null){
-                    if (reflectedEraserDot.overlapping(dot)){
-                        overlapping = true;
+                if (crossed){
+                    if (redrawn[k] == null){
+                        redrawn[k] = new DotList();
+                    }
+                    // The first dot must start a stroke of its own, even next to a stroke of the same radius and colour.
+                    for (int i = start; i < end; i++){
+                        redrawn[k].push(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i), dots.getColor(i), i > start);
                     }
                 }
+            }
+        }
+
+        prepareRegionImage();
+        Graphics2D g2d = regionImage.createGraphics();
+        g2d.setColor(Color.black);
+        for (Rectangle run : runs){
+            g2d.fill(run);
+        }
+        // Sector by sector, like drawSectors(), but each sector only with its own strokes.
+        long dotsDrawn = 0;
+        for (int k = 0; k < numberOfSectors; k++){
+            if (redrawn[k] == null){
+                continue;
+            }
+            DotGeometry geometry = new DotGeometry();
+            geometry.update(redrawn[k], numberOfSectors, centerPoint);
+            if (directRasterizing){
+                drawDots(redrawn[k], geometry, null, 0, redrawn[k].size(), regionRasterizer, sectorTransforms[k], reflectDrawnPoints);
+            } else {
+                g2d.setTransform(sectorTransforms[k]);
+                drawDots(redrawn[k], geometry, null, 0, redrawn[k].size(), g2d, reflectDrawnPoints);
+            }
+            dotsDrawn += redrawn[k].size();
+        }
+        g2d.dispose();
+        for (Rectangle run : runs){
+            panelImageBuffer.getRaster().setRect(regionImage.getRaster().createChild(run.x, run.y, run.width, run.height, run.x, run.y, null));
+        }
+
+        bufferedDotCount = dots.size();
+        performanceMonitor.countDotsDrawn(dotsDrawn * (reflectDrawnPoints ? 2 : 1));
+        event.from = 0;
+        event.to = (int) dotsDrawn;
+        event.sectors = numberOfSectors;
+        event.commit();
+        performanceMonitor.record(PerformanceMonitor.Operation.DRAW_DOTS, System.nanoTime() - startTime);
+        return true;
+    }
 
-                /* If the eraser dot and pen dot do not overlap, push the dot onto the
-                   the new stack so it can be drawn next paint iteration */
-                if (!overlapping){
-                    newDots.push(dot);
+    private static void markCells(boolean[] cells, int columns, int rows, Rectangle bounds){
+        // Marks the cells under bounds (see redrawErasedDots()).
+        int firstColumn = Math.max(0, Math.floorDiv(bounds.x, REGION_CELL)), lastColumn = Math.min(columns - 1, Math.floorDiv(bounds.x + bounds.width - 1, REGION_CELL));
+        for (int row = Math.max(0, Math.floorDiv(bounds.y, REGION_CELL)); row <= Math.min(rows - 1, Math.floorDiv(bounds.y + bounds.height - 1, REGION_CELL)); row++){
+            for (int column = firstColumn; column <= lastColumn; column++){
+                cells[row * columns + column] = true;
+            }
+        }
+    }
+
+    private static boolean isAnyCellMarked(boolean[] cells, int columns, int rows, double minX, double minY, double maxX, double maxY){
+        // Whether any of the cells under the given bounds is marked (see redrawErasedDots()).
+        int firstColumn = Math.max(0, (int) Math.floor(minX / REGION_CELL)), lastColumn = Math.min(columns - 1, (int) Math.floor(maxX / REGION_CELL));
+        int firstRow = Math.max(0, (int) Math.floor(minY / REGION_CELL)), lastRow = Math.min(rows - 1, (int) Math.floor(maxY / REGION_CELL));
+        for (int row = firstRow; row <= lastRow; row++){
+            for (int column = firstColumn; column <= lastColumn; column++){
+                if (cells[row * columns + column]){
+                    return true;
                 }
             }
         }
-        dots = newDots;
+        return false;
+    }
+
+    private Rectangle addDotBounds(Rectangle bounds, double angle, int distFromCenter, int margin){
+        /* Adds the square of half size margin around the point at the given polar coordinates (on the canvas) to bounds
+           (on the panel, which may be null). */
+        int x = screenCenter.x + (int) Math.round(Math.cos(angle) * distFromCenter * viewScale);
+        int y = screenCenter.y + (int) Math.round(Math.sin(angle) * distFromCenter * viewScale);
+        Rectangle dotBounds = new Rectangle(x - margin, y - margin, 2 * margin, 2 * margin);
+        if (bounds == null){
+            return dotBounds;
+        }
+        bounds.add(dotBounds);
+        return bounds;
+    }
+
+    private void schedulePruning(){
+        // (Re)starts the countdown to the next search for hidden dots.
+        if (pruningEnabled){
+            pruneTimer.restart();
+        }
+    }
+
+    public CompletableFuture<Integer> pruneHiddenDots(){
+        /* Looks for the dots completely covered by later opaque dots in the background (see OcclusionPruner), so they
+           are no longer drawn. Completes on the EDT with the number of hidden dots once the result is applied, or with
+           -1 if the doily was changed meanwhile in a way which makes it out of date. */
+        CompletableFuture<Integer> applied = new CompletableFuture<>();
+        if (pruneRunning){
+            applied.complete(-1);
+            return applied;
+        }
+        pruneRunning = true;
+        int generation = pruneGeneration;
+        OcclusionPruner.pruneAsync(dots, numberOfSectors, centerPoint).whenComplete((result, error) ->
+                SwingUtilities.invokeLater(() -> {
+                    pruneRunning = false;
+                    if (error != null || generation != pruneGeneration || result.numberOfSectors != numberOfSectors
+                            || !result.center.equals(centerPoint)){
+                        applied.complete(-1);
+                        return;
+                    }
+                    // Dots were only pushed since the pass started, which cannot make a hidden dot visible again.
+                    pruning = result;
+                    hiddenDots = (BitSet) result.hidden.clone();
+                    hiddenDotCount = result.hiddenCount;
+                    applied.complete(hiddenDotCount);
+                }));
+        return applied;
+    }
+
+    private void dropHiddenDots(){
+        // Draws every dot again, e.g. after dots were erased (the dots hiding others may be gone).
+        if (pruning != null || pruneRunning){
+            pruneGeneration++;
+        }
+        pruning = null;
+        hiddenDots.clear();
+        hiddenDotCount = 0;
+    }
+
+    private void showHiddenDotsAbove(int dotCount){
+        // Dots were popped off the stack, down to dotCount : the strokes hidden by the popped dots are drawn again.
+        if (pruning == null){
+            return;
+        }
+        if (pruneRunning){
+            pruneGeneration++;
+        }
+        for (int k = 0; k < pruning.strokeCount; k++){
+            int start = pruning.strokeStarts[k], end = pruning.strokeEnds[k];
+            if (start < end && pruning.lastOccluders[k] >= dotCount){
+                hiddenDots.clear(start, end);
+                hiddenDotCount -= end - start;
+                // Mark the stroke as shown.
+                pruning.strokeEnds[k] = start;
+            }
+        }
+    }
+
+    public int getHiddenDotCount(){
+        // Number of dots currently skipped when drawing, as they are completely covered by later dots.
+        return hiddenDotCount;
+    }
+
+    public void setPruningEnabled(boolean pruningEnabled){
+        // Whether hidden dots are looked for automatically while drawing. pruneHiddenDots() can still be called.
+        this.pruningEnabled = pruningEnabled;
+        if (!pruningEnabled){
+            pruneTimer.stop();
+        }
+    }
+
+    private void beforeOperation(){
+        // A new operation replaces the undone ones, so checkpoints taken after the current position are no longer valid.
+        checkpoints.discardAfter(history.getPosition());
     }
 
     public void setErasing(boolean erasing){
@@ -177,61 +1025,359 @@ public class DoilyPanel extends JPanel {
         return getPreferredSize();
     }
 
+    public DoilySnapshot getSnapshot(){
+        // Takes an immutable copy of the current doily, which can be rendered without this panel (see DoilyRenderer).
+        return engine.getSnapshot();
+    }
+
+    public DoilyEngine getEngine(){
+        // The engine holding the doily, which other threads may snapshot and render. Only the panel modifies it.
+        return engine;
+    }
+
+    private void replaceDots(DotList dots){
+        // Replaces the doily's dots with the given list, which the engine then owns.
+        engine.setDots(dots);
+        this.dots = engine.getDots();
+    }
+
     public BufferedImage getBufferedImage(){
         /* this method creates a snapshot of the current doily and paints it onto a BufferedImage.
            This BufferedImage will be used to store the doilies in the gallery panel */
+        DoilyEvents.PanelImage event = new DoilyEvents.PanelImage();
+        event.begin();
+        long startTime = System.nanoTime();
         BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2d = image.createGraphics();
 
         /* This call paints the doily data onto the buffered image */
-        paint(g2d);
+        paintingImage = true;
+        try {
+            paint(g2d);
+        } finally {
+            paintingImage = false;
+        }
 
+        event.dots = dots.size();
+        event.width = image.getWidth();
+        event.height = image.getHeight();
+        event.commit();
+        performanceMonitor.record(PerformanceMonitor.Operation.PANEL_IMAGE, System.nanoTime() - startTime);
         return image;
     }
 
-    private void drawDots(Stack<Dot> dots, Graphics g, boolean reflectDrawnPoints){
-        // This function draws all the dots within ONE sector. The function is called once per sector, e.g. it is called 4 times if there are 4 sectors.
-        for (Dot d: dots){
-            g.setColor(d.getColor());
-            int x = (int) (Math.cos(d.getPolar() * angleStep) * d.getDistFromCenter()) + centerPoint.x;
-            int y = (int) (Math.sin(d.getPolar() * angleStep) * d.getDistFromCenter()) + centerPoint.y;
-            x -= Math.cos(d.getPolar()) * (d.getRadius()/2);
-            y -= Math.sin(d.getPolar()) * (d.getRadius()/2);
-            g.fillOval(x, y, d.getRadius(), d.getRadius());
+    private static void drawDots(DotList dots, DotGeometry geometry, BitSet hidden, int from, int to, Graphics g, boolean reflectDrawnPoints){
+        // This function draws the dots in [from, to) within ONE sector. The function is called once per sector, e.g. it is called 4 times if there are 4 sectors.
+        // The positions come from geometry, which must be up to date. The strokes marked in hidden (may be null) are skipped.
+        /* Strokes (see DotList) are drawn as a single line through the centers of their dots, with round caps and joins
+           as wide as the dots, which covers the same pixels as the dots themselves and the gaps between them.
+           Dots on their own are drawn as ovals. If the first dot continues a stroke, the line starts from the dot before it. */
+        Graphics2D g2d = (Graphics2D) g;
+        Stroke oldStroke = g2d.getStroke();
+        Color color = null;
+        int strokeWidth = -1;
+        Path2D.Float line = new Path2D.Float();
+        int start = dots.continuesStroke(from) ? from - 1 : from;
+        for (int end; start < to; start = end){
+            end = dots.getStrokeEnd(start, to);
+            if (hidden != null && hidden.get(start)){
+                // The whole stroke is covered by later dots.
+                continue;
+            }
+            int radius = dots.getRadius(start);
+            // Consecutive dots usually share a colour, so only create a new Color when it changes.
+            if (color == null || color.getRGB() != dots.getColor(start)){
+                color = new Color(dots.getColor(start), true);
+                g2d.setColor(color);
+            }
 
-            if (reflectDrawnPoints){
-                int x2 = (int) (Math.cos(angleStep * (1.0 - d.getPolar())) * d.getDistFromCenter()) + centerPoint.x;
-                int y2 = (int) (Math.sin(angleStep * (1.0 - d.getPolar())) * d.getDistFromCenter()) + centerPoint.y;
-                g.fillOval(x2, y2, d.getRadius(), d.getRadius());
+            if (end - start == 1){
+                g2d.fillOval(geometry.getX(start), geometry.getY(start), radius, radius);
+                if (reflectDrawnPoints){
+                    g2d.fillOval(geometry.getMirroredX(start), geometry.getMirroredY(start), radius, radius);
+                }
+                continue;
+            }
+
+            if (strokeWidth != radius){
+                strokeWidth = radius;
+                g2d.setStroke(new BasicStroke(radius, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            }
+            for (int pass = 0; pass < (reflectDrawnPoints ? 2 : 1); pass++){
+                line.reset();
+                for (int i = start; i < end; i++){
+                    float x = (pass == 0 ? geometry.getX(i) : geometry.getMirroredX(i)) + radius / 2f;
+                    float y = (pass == 0 ? geometry.getY(i) : geometry.getMirroredY(i)) + radius / 2f;
+                    if (i == start){
+                        line.moveTo(x, y);
+                    } else {
+                        line.lineTo(x, y);
+                    }
+                }
+                g2d.draw(line);
+            }
+        }
+        g2d.setStroke(oldStroke);
+    }
+
+    private static void drawDots(DotList dots, DotGeometry geometry, BitSet hidden, int from, int to, DotRasterizer rasterizer,
+                                 AffineTransform transform, boolean reflectDrawnPoints){
+        /* Same as drawDots() above, but writing straight into the rasterizer's image (see DotRasterizer). The centers
+           of the dots are transformed here, the rotation of a round dot being the dot around the rotated center. */
+        double m00 = transform.getScaleX(), m01 = transform.getShearX(), m02 = transform.getTranslateX();
+        double m10 = transform.getShearY(), m11 = transform.getScaleY(), m12 = transform.getTranslateY();
+        double scale = Math.sqrt(Math.abs(transform.getDeterminant()));
+        // Centers of the dots of a stroke, transformed, passed to the rasterizer.
+        float[] strokeXs = new float[16], strokeYs = new float[16];
+        int start = dots.continuesStroke(from) ? from - 1 : from;
+        for (int end; start < to; start = end){
+            end = dots.getStrokeEnd(start, to);
+            if (hidden != null && hidden.get(start)){
+                continue;
+            }
+            int radius = dots.getRadius(start);
+            int diameter = Math.max(1, (int) Math.round(radius * scale));
+            int color = dots.getColor(start);
+            if (strokeXs.length < end - start){
+                strokeXs = new float[Math.max(end - start, 2 * strokeXs.length)];
+                strokeYs = new float[strokeXs.length];
+            }
+            for (int pass = 0; pass < (reflectDrawnPoints ? 2 : 1); pass++){
+                for (int i = start; i < end; i++){
+                    float x = (pass == 0 ? geometry.getX(i) : geometry.getMirroredX(i)) + radius / 2f;
+                    float y = (pass == 0 ? geometry.getY(i) : geometry.getMirroredY(i)) + radius / 2f;
+                    strokeXs[i - start] = (float) (m00 * x + m01 * y + m02);
+                    strokeYs[i - start] = (float) (m10 * x + m11 * y + m12);
+                }
+                if (end - start == 1){
+                    rasterizer.fillDot(strokeXs[0], strokeYs[0], diameter, color);
+                } else {
+                    rasterizer.drawStroke(strokeXs, strokeYs, 0, end - start, diameter, color);
+                }
             }
         }
     }
 
     public void undoDots(int undoOperations){
-        // Undo function. Pops dots off the dots stack and pushes them onto the undoneDots stack.
-        undoOperations = (undoOperations > dots.size()) ? dots.size() : undoOperations;
-        for (int i = 0; i < undoOperations; i++){
-            undoneDots.push(dots.pop());
+        /* Undo function. Reverts the last undoOperations operations of the history (see DoilyHistory), each stroke
+           counting as one operation. Undone dots are popped off the dots stack and pushed onto the undone dots stack. */
+        int remaining = undoOperations;
+        DoilyHistory.Operation operation;
+        while (remaining > 0 && (operation = history.peekUndo()) != null){
+            switch (operation.type){
+                case ADD_DOTS:
+                    // The dots of the top stroke, which were all added by this operation.
+                    int strokeStart = Math.max(dots.getStrokeStart(dots.size() - 1), dots.size() - operation.count);
+                    int count = engine.popTo(history.getUndoneDots(), dots.size() - strokeStart);
+                    dotGeometry.truncate(dots.size());
+                    dotsChanged();
+                    showHiddenDotsAbove(dots.size());
+                    history.undone(count);
+                    remaining--;
+                    continue;
+                case ERASE:
+                    engine.insertAt(operation.indices, operation.dots, operation.cutIndices);
+                    dotGeometry.truncate(operation.indices[0]);
+                    dotsChanged();
+                    dropHiddenDots();
+                    break;
+                case CLEAR:
+                    // Nothing was added since the clear (it would have been undone first), so the cleared dots are simply put back.
+                    replaceDots(operation.dots);
+                    dotGeometry.truncate(0);
+                    dotsChanged();
+                    dropHiddenDots();
+                    break;
+                case PARAMETERS:
+                    applyParameters(operation.oldNumberOfSectors, operation.oldReflectDrawnPoints);
+                    break;
+            }
+            history.undone(1);
+            remaining--;
         }
+        dotIndex.invalidate();
+        updateBufferAfterHistoryChange();
+        schedulePruning();
         repaint();
     }
 
     public void redo(int redoOperations){
-        // Redo function. Pops previously pushed dots off the undoneDots stack back onto the dots stack so they can be drawn again.
-        redoOperations = (redoOperations > undoneDots.size()) ? undoneDots.size() : redoOperations;
-        for (int i = 0; i < redoOperations; i++){
-            dots.push(undoneDots.pop());
+        // Redo function. Re-applies the last redoOperations undone operations, moving undone dots back onto the dots stack.
+        int remaining = redoOperations;
+        DoilyHistory.Operation operation;
+        while (remaining > 0 && (operation = history.peekRedo()) != null){
+            switch (operation.type){
+                case ADD_DOTS:
+                    // Redone dots are appended to the top of the stack, so they can be drawn incrementally.
+                    int count = engine.pushFrom(history.getUndoneDots(), Math.min(getUndoneStrokeLength(), operation.count));
+                    history.redone(count);
+                    remaining--;
+                    continue;
+                case ERASE:
+                    BitSet erased = new BitSet(dots.size());
+                    for (int i : operation.indices){
+                        erased.set(i);
+                    }
+                    dotGeometry.removeMarked(erased);
+                    engine.removeMarked(erased);
+                    dotsChanged();
+                    dropHiddenDots();
+                    break;
+                case CLEAR:
+                    replaceDots(new DotList());
+                    dotGeometry.truncate(0);
+                    dotsChanged();
+                    dropHiddenDots();
+                    break;
+                case PARAMETERS:
+                    applyParameters(operation.newNumberOfSectors, operation.newReflectDrawnPoints);
+                    break;
+            }
+            history.redone(1);
+            remaining--;
         }
+        dotIndex.invalidate();
+        updateBufferAfterHistoryChange();
+        schedulePruning();
         repaint();
     }
 
+    private int getUndoneStrokeLength(){
+        // Number of dots of the next stroke to redo. The undone dots are in reverse order, the stroke's first dot on top.
+        DotList undoneDots = history.getUndoneDots();
+        int top = undoneDots.size() - 1;
+        int length = 1;
+        while (top - length >= 0 && undoneDots.isJoined(top - length)){
+            length++;
+        }
+        return length;
+    }
+
     public void clearDisplay(){
-        // Clears display. Resets dots and undo operations.
-        this.dots.clear();
-        this.undoneDots.clear();
+        // Clears display. The cleared dots are kept in the history, so clearing can be undone.
+        if (!dots.isEmpty()){
+            beforeOperation();
+            history.recordClear(dots);
+            replaceDots(new DotList());
+            dotsChanged();
+        }
+        dropHiddenDots();
+        dotGeometry.truncate(0);
+        dotIndex.invalidate();
+        invalidateBuffer();
         repaint();
     }
 
+    public void setDots(DotList dots){
+        // Replaces the dots of the doily with a copy of dots (e.g. a generated doily, see the jmh benchmarks). Clears the history.
+        replaceDots(new DotList(dots));
+        history.clear();
+        checkpoints.clear();
+        dotsChanged();
+        dropHiddenDots();
+        dotGeometry.truncate(0);
+        dotIndex.invalidate();
+        invalidateBuffer();
+        repaint();
+    }
+
+    public void setHistoryMemoryLimit(long bytes){
+        // Maximum memory used by the undo history, raster checkpoints included. The oldest operations are forgotten once it is exceeded.
+        history.setMemoryLimit(bytes);
+        trimCheckpoints();
+    }
+
+    private void trimCheckpoints(){
+        /* The raster checkpoints count towards the history's memory limit. They only make undoing faster, so they get
+           whatever the operations leave, and go first. */
+        checkpoints.trim(history.getMemoryLimit() - history.getMemoryUsage());
+    }
+
+    public void setRenderCacheMemoryLimit(long bytes){
+        // Maximum memory used by the buffers kept for other drawing parameters (see RenderCache).
+        renderCache.setMemoryLimit(bytes);
+    }
+
+    private void dotsChanged(){
+        // Dots were changed other than by adding dots on top : the buffers kept for other parameters are out of date.
+        renderCache.clear();
+        dotsVersion++;
+        speculationTimer.restart();
+    }
+
+    private void cacheBuffer(int oldNumberOfSectors, boolean oldReflectDrawnPoints){
+        /* Hands the buffer, drawn with the old parameters, over to the render cache so going back to them is instant.
+           A new buffer is created (or taken from the cache) on the next paint. */
+        if (bufferValid && panelImageBuffer != null){
+            renderCache.put(getRenderParameters(oldNumberOfSectors, oldReflectDrawnPoints), panelImageBuffer, bufferedDotCount);
+            panelImageBuffer = null;
+        }
+    }
+
+    private void renderSpeculatively(){
+        /* Renders the buffers for the parameters the user is most likely to pick next (one sector more or less, and
+           the other reflection) in the background, and puts them in the render cache. Not done with tile rendering,
+           whose buffers are drawn differently. */
+        if (speculationRunning || tileRendering || !bufferValid || getWidth() <= 0 || getHeight() <= 0){
+            return;
+        }
+        int[] sectorCounts = {numberOfSectors + 1, numberOfSectors - 1, numberOfSectors};
+        boolean[] reflections = {reflectDrawnPoints, reflectDrawnPoints, !reflectDrawnPoints};
+        List<Integer> candidates = new ArrayList<>();
+        for (int k = 0; k < sectorCounts.length; k++){
+            // Sector counts no doily can have are not worth a render (the slider never goes past the maximum).
+            if (sectorCounts[k] > 0 && sectorCounts[k] <= DoilySnapshot.MAX_NUMBER_OF_SECTORS
+                    && !renderCache.contains(getRenderParameters(sectorCounts[k], reflections[k]))){
+                candidates.add(k);
+            }
+        }
+        if (candidates.isEmpty()){
+            return;
+        }
+
+        speculationRunning = true;
+        String speculatedFor = getRenderParameters() + "@" + dotsVersion;
+        DotList copy = new DotList(dots);
+        long version = dotsVersion;
+        int width = getWidth(), height = getHeight();
+        boolean direct = directRasterizing;
+        AffineTransform view = new AffineTransform(viewTransform);
+        Point center = new Point(centerPoint);
+        String[] parameters = new String[sectorCounts.length];
+        for (int k : candidates){
+            parameters[k] = getRenderParameters(sectorCounts[k], reflections[k]);
+        }
+        speculationExecutor.execute(() -> {
+            try {
+                DotGeometry geometry = new DotGeometry();
+                for (int k : candidates){
+                    geometry.update(copy, sectorCounts[k], center);
+                    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D g2d = image.createGraphics();
+                    g2d.setColor(Color.black);
+                    g2d.fillRect(0, 0, width, height);
+                    g2d.dispose();
+                    drawSectors(image, direct ? new DotRasterizer(image) : null, copy, geometry, null, sectorCounts[k],
+                            reflections[k], view, center, 0, copy.size());
+                    SwingUtilities.invokeLater(() -> {
+                        // Dropped if the dots changed meanwhile, or if the panel already drew its own buffer for them.
+                        if (version == dotsVersion && !parameters[k].equals(getRenderParameters()) && !renderCache.contains(parameters[k])){
+                            renderCache.put(parameters[k], image, copy.size());
+                        }
+                    });
+                }
+            } finally {
+                SwingUtilities.invokeLater(() -> {
+                    speculationRunning = false;
+                    // The parameters or dots changed while rendering : the user may need other buffers by now.
+                    if (!speculatedFor.equals(getRenderParameters() + "@" + dotsVersion)){
+                        speculationTimer.restart();
+                    }
+                });
+            }
+        });
+    }
+
     private int getPenSize() {
         return penSize;
     }
@@ -242,10 +1388,42 @@ public class DoilyPanel extends JPanel {
 
     public void setDrawSectorLines(boolean drawSectorLines) {
         this.drawSectorLines = drawSectorLines;
+        engine.setDrawSectorLines(drawSectorLines);
     }
 
     public void setReflectDrawnPoints(boolean reflectDrawnPoints) {
-        this.reflectDrawnPoints = reflectDrawnPoints;
+        if (this.reflectDrawnPoints != reflectDrawnPoints){
+            beforeOperation();
+            history.recordParameters(numberOfSectors, this.reflectDrawnPoints, numberOfSectors, reflectDrawnPoints);
+            applyParameters(numberOfSectors, reflectDrawnPoints);
+        }
+    }
+
+    public void setTileRendering(boolean tileRendering) {
+        if (this.tileRendering != tileRendering){
+            invalidateBuffer();
+        }
+        this.tileRendering = tileRendering;
+        if (!tileRendering){
+            sectorTile = null;
+        }
+    }
+
+    public void setDirectRasterizing(boolean directRasterizing) {
+        if (this.directRasterizing != directRasterizing){
+            invalidateBuffer();
+        }
+        this.directRasterizing = directRasterizing;
+        if (!directRasterizing){
+            /* The images rasterized into can no longer be accelerated (see DotRasterizer) : new ones are created on the
+               next paint, which Java2D can cache in video memory again. */
+            bufferRasterizer = tileRasterizer = regionRasterizer = null;
+            panelImageBuffer = sectorTile = regionImage = null;
+        }
+    }
+
+    public boolean isDirectRasterizing() {
+        return directRasterizing;
     }
 
     public BufferedImage getPanelImageBuffer() {
@@ -261,49 +1439,195 @@ public class DoilyPanel extends JPanel {
     }
 
     public void setPenColor(Color penColor) {
+        // The colour chooser returns null when cancelled, in which case the current colour is kept.
+        if (penColor == null){
+            return;
+        }
         this.penColor = penColor;
     }
 
     public void setNumberOfSectors(int numberOfSectors) {
-        // Sets the number of sectors and updates the angle between each sector.
+        // Sets the number of sectors (recording the change in the history so it can be undone).
+        if (this.numberOfSectors != numberOfSectors){
+            beforeOperation();
+            history.recordParameters(this.numberOfSectors, reflectDrawnPoints, numberOfSectors, reflectDrawnPoints);
+            applyParameters(numberOfSectors, reflectDrawnPoints);
+        }
+    }
+
+    private void applyParameters(int numberOfSectors, boolean reflectDrawnPoints){
+        /* Sets the drawing parameters and updates the angle between each sector. Property change events are fired so
+           the Control Panel can follow changes made by undo/redo. */
+        int oldNumberOfSectors = this.numberOfSectors;
+        boolean oldReflectDrawnPoints = this.reflectDrawnPoints;
         this.numberOfSectors = numberOfSectors;
+        this.reflectDrawnPoints = reflectDrawnPoints;
+        engine.setParameters(numberOfSectors, reflectDrawnPoints);
         angleStep = 2*Math.PI/ numberOfSectors;
+        if (numberOfSectors != oldNumberOfSectors){
+            // Hidden dots hold whether or not points are reflected, but not for another number of sectors.
+            dropHiddenDots();
+        }
+        cacheBuffer(oldNumberOfSectors, oldReflectDrawnPoints);
+        invalidateBuffer();
+        firePropertyChange("numberOfSectors", oldNumberOfSectors, numberOfSectors);
+        firePropertyChange("reflectDrawnPoints", oldReflectDrawnPoints, reflectDrawnPoints);
     }
 
     public void addDot(MouseEvent e){
-        /* Centralise the adding of dots. Events are going to come from both the dragging and the clicking of the mouse */
+        // Adds a single dot at the mouse position, bypassing the stroke sampling.
+        DoilyEvents.AddDots event = new DoilyEvents.AddDots();
+        event.begin();
+        long startTime = System.nanoTime();
+        int from = dots.size();
+        Point position = toCanvas(e.getX(), e.getY());
+        addDot(position.x, position.y);
+        updateErasing();
+
+        // Whenever we add a dot, repaint the doily panel to make the changes visible to the user.
+        repaintDots(dots, from, dots.size());
+        schedulePruning();
+        recordAddDots(event, startTime, 1);
+    }
+
+    private void addDot(int x, int y){
+        // Adds a dot on its own (not part of a stroke).
+        addDot(x, y, false);
+    }
+
+    private void addDot(int x, int y, boolean joined){
+        /* Centralise the adding of dots. Dots are going to come from both the dragging and the clicking of the mouse.
+           Eraser dots are only queued : updateErasing() processes them. joined continues the stroke of the previous dot. */
 
         // Polar is the Theta part of a polar coordinate. Corresponds to the angle between the dot and the closest sector.
-        double polar = ((Math.atan2(e.getY() - centerPoint.y, e.getX() - centerPoint.x) + Math.PI) % angleStep) / angleStep;// This is now a percentage of the section
+        double polar = ((Math.atan2(y - centerPoint.y, x - centerPoint.x) + Math.PI) % angleStep) / angleStep;// This is now a percentage of the section
 
         // centerDist is the radius part of a polar coordinate. Corresponds to the distance separating the dot from the center of the doily panel.
-        int centerDist = (int) Math.sqrt(Math.pow(centerPoint.x - e.getX(), 2) + Math.pow(centerPoint.y - e.getY(), 2));
+        int centerDist = (int) Math.sqrt(Math.pow(centerPoint.x - x, 2) + Math.pow(centerPoint.y - y, 2));
 
-        // Create the dot using the previously calculated polar coordinates.
-        Dot dot = new Dot(polar, centerDist, getPenSize(), getPenColor());
+        // Depending on the current drawing mode (paint brush or eraser), add the new dot (using the previously calculated polar coordinates) to the corresponding stack.
+        if (erasing){
+            eraserDots.push(polar, centerDist, getPenSize(), getPenColor().getRGB());
+        } else {
+            beforeOperation();
+            engine.addDot(polar, centerDist, getPenSize(), getPenColor().getRGB(), joined);
+            history.recordAddDot();
+        }
+    }
+
+    private void queueInput(MouseEvent e){
+        // Samples the mouse position into dots (see StrokeSampler), which are added on the next input frame.
+        Point position = toCanvas(e.getX(), e.getY());
+        strokeSampler.addPoint(position.x, position.y, getPenSize(), pendingDots);
+        if (!pendingDots.isEmpty() && !inputTimer.isRunning()){
+            inputTimer.start();
+        }
+    }
+
+    private void flushInput(){
+        /* Adds every pending dot, processes the pending eraser dots in a single batch, then repaints once.
+           However many mouse events were received since the last frame, they only cost one repaint. */
+        inputTimer.stop();
+        if (pendingDots.isEmpty()){
+            return;
+        }
+        DoilyEvents.AddDots event = new DoilyEvents.AddDots();
+        event.begin();
+        long startTime = System.nanoTime();
+        int from = dots.size();
+        int added = pendingDots.size();
+        for (Point dot : pendingDots){
+            addDot(dot.x, dot.y, strokeInProgress);
+            strokeInProgress = !erasing;
+        }
+        pendingDots.clear();
+        // Erased dots are repainted by updateErasing().
+        updateErasing();
+
+        // Whenever we add dots, repaint the part of the doily panel they cover to make the changes visible to the user.
+        // That includes the line from the last dot drawn before them, if they continue its stroke.
+        repaintDots(dots, dots.continuesStroke(from) ? from - 1 : from, dots.size());
+        schedulePruning();
+        recordAddDots(event, startTime, added);
+    }
 
-        // Depending on the current drawing mode (paint brush or eraser), add the new dot to the corresponding stack.
+    private void recordAddDots(DoilyEvents.AddDots event, long startTime, int added){
+        /* Records adding (or erasing with) a batch of dots, which started at startTime (see PerformanceMonitor).
+           Eraser dots are counted apart : they are never added to the doily. */
         if (erasing){
-            // If we add it to the eraser stack, call updateErasing() to process the eraser dots.
-            eraserDots.push(dot);
-            updateErasing();
+            performanceMonitor.countEraserDots(added);
         } else {
-            dots.push(dot);
+            performanceMonitor.countDotsAdded(added);
         }
+        event.dotsAdded = added;
+        event.erasing = erasing;
+        event.commit();
+        performanceMonitor.record(PerformanceMonitor.Operation.ADD_DOTS, System.nanoTime() - startTime);
+    }
 
-        // Whenever we add a dot, repaint the doily panel to make the changes visible to the user.
+    public PerformanceMonitor getPerformanceMonitor(){
+        return performanceMonitor;
+    }
+
+    public void setShowPerformance(boolean showPerformance){
+        /* Shows or hides the performance overlay. Showing it starts measuring afresh. The panel keeps measuring while
+           it is hidden, so getPerformanceMonitor() still has the figures; the same operations are always recorded as
+           JDK Flight Recorder events as well (see DoilyEvents). */
+        if (showPerformance == this.showPerformance){
+            return;
+        }
+        this.showPerformance = showPerformance;
+        if (showPerformance){
+            performanceMonitor.reset();
+            overlayPaintCount = 0;
+            overlayBounds = null;
+            overlayTimer.start();
+        } else {
+            overlayTimer.stop();
+        }
         repaint();
     }
 
+    public long getInputEventCount(){
+        // Number of mouse positions received while drawing.
+        return strokeSampler.getEventsReceived();
+    }
+
+    public long getInputDotCount(){
+        // Number of dots (or eraser dots) those mouse positions were turned into.
+        return strokeSampler.getDotsEmitted();
+    }
+
     class DrawListener extends MouseAdapter{
+        @Override
+        public void mousePressed(MouseEvent e) {
+            strokeSampler.startStroke();
+            strokeInProgress = false;
+        }
+
         @Override
         public void mouseDragged(MouseEvent e) {
-            addDot(e);
+            queueInput(e);
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            // Finish the stroke straight away, so e.g. an undo right after it includes every dot.
+            flushInput();
+            // The next paint draws it onto the buffer (see getRasterizedDotCount()).
+            strokeInProgress = false;
+            if (bufferedDotCount < dots.size()){
+                repaint();
+            }
         }
 
         @Override
         public void mouseClicked(MouseEvent e) {
-            addDot(e);
+            strokeSampler.startStroke();
+            strokeInProgress = false;
+            queueInput(e);
+            flushInput();
+            strokeInProgress = false;
         }
 
         @Override
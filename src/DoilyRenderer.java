@@ -0,0 +1,366 @@
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+public class DoilyRenderer {
+    /* Draws a DoilySnapshot at any resolution, without a DoilyPanel.
+       The snapshot's dots are in pixels of the canvas they were drawn on, so everything is scaled by the ratio
+       between the output width and that canvas width. Positions are kept as floating point numbers rather than
+       being rounded to the canvas' pixels, so large renders stay sharp.
+
+       The renderer is set up once for a given output size, then any region of the output can be drawn with render().
+       It is not modified by rendering, so several threads can render different regions at the same time. */
+
+    public static final int SECTOR_LINE_WIDTH = 2;
+
+    private final DoilySnapshot doily;
+    private final int width, height;
+    private final double scale;
+    private final double centerX, centerY;
+
+    // Rotation of each sector.
+    private final double[] sectorCos, sectorSin;
+
+    // Center of every dot (and of its reflection) within the first sector, relative to the center of the output.
+    private final float[] dotX, dotY, mirroredX, mirroredY;
+    private final float[] diameters;
+
+    private boolean antialiasing = true;
+
+    public DoilyRenderer(DoilySnapshot doily, int width, int height){
+        this.doily = doily;
+        this.width = width;
+        this.height = height;
+        this.scale = (double) width / doily.getCanvasWidth();
+        this.centerX = width / 2.0;
+        this.centerY = height / 2.0;
+
+        int numberOfSectors = doily.getNumberOfSectors();
+        double angleStep = 2*Math.PI/ numberOfSectors;
+        // With an odd number of sectors, everything is rotated back by half a sector (as in the Doily Panel).
+        double offset = (numberOfSectors % 2 == 1) ? - angleStep/2 : 0;
+        sectorCos = new double[numberOfSectors];
+        sectorSin = new double[numberOfSectors];
+        for (int i = 0; i < numberOfSectors; i++){
+            sectorCos[i] = Math.cos(offset + i * angleStep);
+            sectorSin[i] = Math.sin(offset + i * angleStep);
+        }
+
+        // Same positions as the Doily Panel, converted from the top left corner of each oval to its center.
+        DotList dots = doily.getDots();
+        dotX = new float[dots.size()];
+        dotY = new float[dots.size()];
+        mirroredX = new float[dots.size()];
+        mirroredY = new float[dots.size()];
+        diameters = new float[dots.size()];
+        DotList.Cursor d = dots.cursor();
+        while (d.next()){
+            int i = d.getIndex();
+            dotX[i] = (float) (getDotCenterX(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+            dotY[i] = (float) (getDotCenterY(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+            mirroredX[i] = (float) (getMirroredCenterX(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+            mirroredY[i] = (float) (getMirroredCenterY(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+            diameters[i] = (float) (d.getRadius() * scale);
+        }
+    }
+
+    /* Center of a dot's oval (and of its reflection) within the first sector, relative to the center of the canvas,
+       in pixels of the canvas. The panel offsets each oval by half its radius, rounded down, and draws reflections
+       from their polar position. Also used by the VectorExporter. */
+
+    static double getDotCenterX(double polar, int distFromCenter, int radius, double angleStep){
+        return Math.cos(polar * angleStep) * distFromCenter - Math.cos(polar) * (radius / 2) + radius / 2.0;
+    }
+
+    static double getDotCenterY(double polar, int distFromCenter, int radius, double angleStep){
+        return Math.sin(polar * angleStep) * distFromCenter - Math.sin(polar) * (radius / 2) + radius / 2.0;
+    }
+
+    static double getMirroredCenterX(double polar, int distFromCenter, int radius, double angleStep){
+        return Math.cos(angleStep * (1.0 - polar)) * distFromCenter + radius / 2.0;
+    }
+
+    static double getMirroredCenterY(double polar, int distFromCenter, int radius, double angleStep){
+        return Math.sin(angleStep * (1.0 - polar)) * distFromCenter + radius / 2.0;
+    }
+
+    public BufferedImage render(){
+        // Renders the whole doily onto a new image.
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        render(g2d, new Rectangle(0, 0, width, height));
+        g2d.dispose();
+        return image;
+    }
+
+    public int render(Graphics2D g, Rectangle region){
+        /* Renders the given region of the output. The region's top left corner is drawn at the origin of g.
+           Only the dots and strokes whose bounds intersect the region are drawn. Returns the number of ovals and
+           strokes drawn. */
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.translate(-region.x, -region.y);
+        g2d.clipRect(region.x, region.y, region.width, region.height);
+
+        // Create a background
+        g2d.setColor(Color.black);
+        g2d.fillRect(region.x, region.y, region.width, region.height);
+
+        if (antialiasing){
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        int drawn = drawDots(g2d, 0, diameters.length, region);
+
+        if (doily.isDrawSectorLines()){
+            drawSectorLines(g2d);
+        }
+
+        g2d.dispose();
+        return drawn;
+    }
+
+    public int renderDots(Graphics2D g, int from, int to){
+        /* Draws the dots in [from, to) over what g already holds, without a background or sector lines, so a doily
+           can be built up a few dots at a time (see TimeLapseExporter). If the first dot continues a stroke, the line
+           starts from the dot before it, drawing the round end there again : with translucent colours, build up whole
+           strokes only. Returns the number of ovals and strokes drawn. */
+        Graphics2D g2d = (Graphics2D) g.create();
+        if (antialiasing){
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        int drawn = drawDots(g2d, from, to, new Rectangle(0, 0, width, height));
+        g2d.dispose();
+        return drawn;
+    }
+
+    public void renderSectorLines(Graphics2D g){
+        // Draws the sector lines of the doily (if it has them) over what g already holds.
+        if (doily.isDrawSectorLines()){
+            Graphics2D g2d = (Graphics2D) g.create();
+            if (antialiasing){
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            }
+            drawSectorLines(g2d);
+            g2d.dispose();
+        }
+    }
+
+    public Bands indexBands(int bandHeight){
+        /* Sorts the strokes of every sector into the horizontal bands of bandHeight rows they cross, so each band can
+           then be rendered (see render(Graphics2D, Bands, int)) walking only its own strokes, rather than rotating and
+           culling every dot of every sector again for every band. Each stroke is rotated once per sector here. */
+        int bandCount = (height + bandHeight - 1) / bandHeight;
+        int sectors = sectorCos.length;
+        Bands bands = new Bands(bandHeight, bandCount, sectors);
+        boolean reflect = doily.isReflectDrawnPoints();
+        DotList dots = doily.getDots();
+
+        for (int k = 0; k < sectors; k++){
+            double cos = sectorCos[k], sin = sectorSin[k];
+            for (int b = 0; b < bandCount; b++){
+                bands.sectorStarts[b][k] = bands.counts[b];
+            }
+            for (int start = 0, end; start < diameters.length; start = end){
+                end = dots.getStrokeEnd(start, diameters.length);
+                double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+                for (int pass = 0; pass < (reflect ? 2 : 1); pass++){
+                    float[] xs = (pass == 0) ? dotX : mirroredX;
+                    float[] ys = (pass == 0) ? dotY : mirroredY;
+                    for (int i = start; i < end; i++){
+                        double rotatedY = centerY + xs[i] * sin + ys[i] * cos;
+                        minY = Math.min(minY, rotatedY);
+                        maxY = Math.max(maxY, rotatedY);
+                    }
+                }
+                // A pixel of margin either way : the strokes are culled exactly again when each band is drawn.
+                double r = diameters[start] / 2;
+                int firstBand = Math.max(0, (int) Math.floor((minY - r - 1) / bandHeight));
+                int lastBand = Math.min(bandCount - 1, (int) Math.floor((maxY + r + 1) / bandHeight));
+                for (int b = firstBand; b <= lastBand; b++){
+                    bands.add(b, start);
+                }
+            }
+        }
+        for (int b = 0; b < bandCount; b++){
+            bands.sectorStarts[b][sectors] = bands.counts[b];
+        }
+        return bands;
+    }
+
+    public int render(Graphics2D g, Bands bands, int band){
+        /* Renders band number band of the output, as split by indexBands(), the same as render(g, region) with the
+           band's region would, but only going through the strokes crossing the band. */
+        int y = band * bands.bandHeight;
+        Rectangle region = new Rectangle(0, y, width, Math.min(bands.bandHeight, height - y));
+        Graphics2D g2d = (Graphics2D) g.create();
+        g2d.translate(-region.x, -region.y);
+        g2d.clipRect(region.x, region.y, region.width, region.height);
+
+        g2d.setColor(Color.black);
+        g2d.fillRect(region.x, region.y, region.width, region.height);
+
+        if (antialiasing){
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        StrokeDrawer drawer = new StrokeDrawer(g2d, region);
+        int[] strokes = bands.strokes[band];
+        int[] sectorStarts = bands.sectorStarts[band];
+        for (int k = 0; k < sectorCos.length; k++){
+            for (int s = sectorStarts[k]; s < sectorStarts[k + 1]; s++){
+                int start = strokes[s];
+                drawer.draw(k, start, doily.getDots().getStrokeEnd(start, diameters.length));
+            }
+        }
+
+        if (doily.isDrawSectorLines()){
+            drawSectorLines(g2d);
+        }
+
+        g2d.dispose();
+        return drawer.drawn;
+    }
+
+    private int drawDots(Graphics2D g2d, int from, int to, Rectangle region){
+        // Draws the dots in [from, to) whose bounds intersect region, in every sector.
+        DotList dots = doily.getDots();
+        StrokeDrawer drawer = new StrokeDrawer(g2d, region);
+        int first = (from < to && dots.continuesStroke(from)) ? from - 1 : from;
+
+        for (int k = 0; k < sectorCos.length; k++){
+            for (int start = first, end; start < to; start = end){
+                end = dots.getStrokeEnd(start, to);
+                drawer.draw(k, start, end);
+            }
+        }
+
+        return drawer.drawn;
+    }
+
+    class StrokeDrawer {
+        /* Draws strokes (see DotList) as a single line through their dots, and single dots as ovals, rotated into
+           a sector, skipping those whose bounds do not intersect region. Keeps the colour and stroke of g2d between
+           strokes, as setting them is not free. */
+        private final Graphics2D g2d;
+        private final double top, bottom, left, right;
+        private final boolean reflect = doily.isReflectDrawnPoints();
+        private final DotList dots = doily.getDots();
+        private final Ellipse2D.Double oval = new Ellipse2D.Double();
+        private final Path2D.Double line = new Path2D.Double();
+        private Color color = null;
+        private float strokeWidth = -1;
+        int drawn = 0;
+
+        StrokeDrawer(Graphics2D g2d, Rectangle region){
+            this.g2d = g2d;
+            this.top = region.y;
+            this.bottom = region.y + region.height;
+            this.left = region.x;
+            this.right = region.x + region.width;
+        }
+
+        void draw(int k, int start, int end){
+            // Draws the dots in [start, end) (and their reflections) in sector k.
+            double cos = sectorCos[k], sin = sectorSin[k];
+            double r = diameters[start] / 2;
+            for (int pass = 0; pass < (reflect ? 2 : 1); pass++){
+                float[] xs = (pass == 0) ? dotX : mirroredX;
+                float[] ys = (pass == 0) ? dotY : mirroredY;
+                double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+                line.reset();
+                for (int i = start; i < end; i++){
+                    // Rotate the dot's center into sector k.
+                    double rotatedX = centerX + xs[i] * cos - ys[i] * sin;
+                    double rotatedY = centerY + xs[i] * sin + ys[i] * cos;
+                    minX = Math.min(minX, rotatedX);
+                    maxX = Math.max(maxX, rotatedX);
+                    minY = Math.min(minY, rotatedY);
+                    maxY = Math.max(maxY, rotatedY);
+                    if (end - start > 1){
+                        if (i == start){
+                            line.moveTo(rotatedX, rotatedY);
+                        } else {
+                            line.lineTo(rotatedX, rotatedY);
+                        }
+                    }
+                }
+                if (maxY + r < top || minY - r > bottom || maxX + r < left || minX - r > right){
+                    continue;
+                }
+                if (color == null || color.getRGB() != dots.getColor(start)){
+                    color = new Color(dots.getColor(start), true);
+                    g2d.setColor(color);
+                }
+                if (end - start == 1){
+                    oval.setFrame(minX - r, minY - r, 2 * r, 2 * r);
+                    g2d.fill(oval);
+                } else {
+                    if (strokeWidth != diameters[start]){
+                        strokeWidth = diameters[start];
+                        g2d.setStroke(new BasicStroke(strokeWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                    }
+                    g2d.draw(line);
+                }
+                drawn++;
+            }
+        }
+    }
+
+    private void drawSectorLines(Graphics2D g2d){
+        // Same as the Doily Panel's sector lines, scaled to the output.
+        double lineLength = width/2.0 * 1.4;
+        g2d.setColor(Color.white);
+        g2d.setStroke(new BasicStroke((float) (SECTOR_LINE_WIDTH * scale)));
+        Line2D.Double line = new Line2D.Double();
+        for (int k = 0; k < sectorCos.length; k++){
+            line.setLine(centerX, centerY, centerX + sectorCos[k] * lineLength, centerY + sectorSin[k] * lineLength);
+            g2d.draw(line);
+        }
+    }
+
+    public static class Bands {
+        // The strokes crossing each band of the output, see indexBands().
+        final int bandHeight;
+        // Index of the first dot of each stroke crossing each band, in drawing order : sector by sector, bottom dots first.
+        final int[][] strokes;
+        final int[] counts;
+        // Where each sector's strokes start in strokes[band], with the total count at the end.
+        final int[][] sectorStarts;
+
+        Bands(int bandHeight, int bandCount, int sectors){
+            this.bandHeight = bandHeight;
+            this.strokes = new int[bandCount][16];
+            this.counts = new int[bandCount];
+            this.sectorStarts = new int[bandCount][sectors + 1];
+        }
+
+        void add(int band, int start){
+            if (counts[band] == strokes[band].length){
+                strokes[band] = Arrays.copyOf(strokes[band], 2 * counts[band]);
+            }
+            strokes[band][counts[band]++] = start;
+        }
+
+        public int getBandCount(){
+            return counts.length;
+        }
+    }
+
+    public void setAntialiasing(boolean antialiasing) {
+        this.antialiasing = antialiasing;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public static int getHeightForWidth(DoilySnapshot doily, int width){
+        // Output height which keeps the doily's aspect ratio for the given width.
+        return Math.max(1, (int) Math.round((double) width * doily.getCanvasHeight() / doily.getCanvasWidth()));
+    }
+}
@@ -0,0 +1,56 @@
+public class DoilySnapshot {
+    /* Immutable copy of everything needed to draw a doily : its dots and drawing parameters.
+       Snapshots are taken from the Doily Panel so doilies can be rendered (e.g. exported) away from the panel,
+       and from other threads, without being affected by the user carrying on drawing. */
+
+    // Most sectors a doily can have (the Control Panel's slider goes up to it). Rendering loops over every sector.
+    public static final int MAX_NUMBER_OF_SECTORS = 24;
+
+    private final DotList dots;
+    private final int numberOfSectors;
+    private final boolean reflectDrawnPoints;
+    private final boolean drawSectorLines;
+
+    // Size of the canvas the dots were drawn on. Dot distances and radii are in pixels of this canvas.
+    private final int canvasWidth, canvasHeight;
+
+    public DoilySnapshot(DotList dots, int numberOfSectors, boolean reflectDrawnPoints, boolean drawSectorLines, int canvasWidth, int canvasHeight){
+        this(dots, numberOfSectors, reflectDrawnPoints, drawSectorLines, canvasWidth, canvasHeight, true);
+    }
+
+    DoilySnapshot(DotList dots, int numberOfSectors, boolean reflectDrawnPoints, boolean drawSectorLines, int canvasWidth, int canvasHeight, boolean copyDots){
+        // Dots which nothing else references (e.g. freshly loaded from a file) do not need to be copied.
+        this.dots = copyDots ? new DotList(dots) : dots;
+        this.numberOfSectors = numberOfSectors;
+        this.reflectDrawnPoints = reflectDrawnPoints;
+        this.drawSectorLines = drawSectorLines;
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+    }
+
+    //Getters. The dots must not be modified.
+
+    public DotList getDots() {
+        return dots;
+    }
+
+    public int getNumberOfSectors() {
+        return numberOfSectors;
+    }
+
+    public boolean isReflectDrawnPoints() {
+        return reflectDrawnPoints;
+    }
+
+    public boolean isDrawSectorLines() {
+        return drawSectorLines;
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+}
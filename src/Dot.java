@@ -3,9 +3,6 @@ import java.awt.*;
 public class Dot {
     // Stores drawing attributes for every dot, along with polar coordinates.
 
-    // Dot location
-    private Point point;
-
     //Dot radius
     private int radius;
 
@@ -36,8 +33,13 @@ public class Dot {
 
     public boolean overlapping(Dot otherDot){
         // Returns true if this dot and otherDot are overlapping
-        double distance = Math.sqrt(Math.pow(this.distFromCenter, 2) + Math.pow(otherDot.distFromCenter, 2) - 2*this.distFromCenter*otherDot.distFromCenter*Math.cos(otherDot.polar - this.polar));
-        return (distance < this.radius);
+        return overlapping(polar, distFromCenter, radius, otherDot.polar, otherDot.distFromCenter);
+    }
+
+    public static boolean overlapping(double polar, int distFromCenter, int radius, double otherPolar, int otherDistFromCenter){
+        // Same as above, for dots which are not stored as Dot objects (see DotList).
+        double distance = Math.sqrt(Math.pow(distFromCenter, 2) + Math.pow(otherDistFromCenter, 2) - 2*distFromCenter*otherDistFromCenter*Math.cos(otherPolar - polar));
+        return (distance < radius);
     }
 
     //Getters and setters
@@ -54,14 +56,6 @@ public class Dot {
         return distFromCenter;
     }
 
-    public Point getPoint() {
-        return point;
-    }
-
-    public void setPoint(Point point) {
-        this.point = point;
-    }
-
     public int getRadius() {
         return radius;
     }
@@ -0,0 +1,123 @@
+import java.awt.*;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class DotGeometry {
+    /* Cache of the on-screen position of every dot of a DotList, within the first sector.
+       Converting a dot's polar coordinates takes several cos/sin calls, and the result only depends on the number of
+       sectors and the center of the panel. Rather than doing it for every dot, in every sector, on every paint, the
+       positions are computed once and reused until the number of sectors or the panel size change.
+
+       Like the DotList, entry i is the dot at index i. x/y is the top left corner of the dot's oval, and
+       mirroredX/mirroredY the top left corner of its reflection. */
+
+    private int[] x, y, mirroredX, mirroredY;
+
+    // Number of dots (from the bottom of the DotList) with a cached position.
+    private int count;
+
+    // The cached positions are only valid for these drawing parameters.
+    private int numberOfSectors;
+    private int centerX, centerY;
+
+    public DotGeometry(){
+        x = new int[0];
+        y = new int[0];
+        mirroredX = new int[0];
+        mirroredY = new int[0];
+        count = 0;
+    }
+
+    public void update(DotList dots, int numberOfSectors, Point center){
+        // Computes the positions of the dots which are not cached yet. Everything is recomputed if the parameters changed.
+        if (numberOfSectors != this.numberOfSectors || center.x != centerX || center.y != centerY){
+            this.numberOfSectors = numberOfSectors;
+            this.centerX = center.x;
+            this.centerY = center.y;
+            count = 0;
+        }
+        count = Math.min(count, dots.size());
+        if (x.length < dots.size()){
+            int capacity = Math.max(dots.size(), x.length + (x.length >> 1) + 1);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            mirroredX = Arrays.copyOf(mirroredX, capacity);
+            mirroredY = Arrays.copyOf(mirroredY, capacity);
+        }
+
+        double angleStep = 2*Math.PI/ numberOfSectors;
+        DotList.Cursor d = dots.cursor(count, dots.size());
+        while (d.next()){
+            int i = d.getIndex();
+            x[i] = computeX(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep, centerX);
+            y[i] = computeY(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep, centerY);
+            mirroredX[i] = computeMirroredX(d.getPolar(), d.getDistFromCenter(), angleStep, centerX);
+            mirroredY[i] = computeMirroredY(d.getPolar(), d.getDistFromCenter(), angleStep, centerY);
+        }
+        count = dots.size();
+    }
+
+    /* Position of a dot's oval (and of its reflection) within the first sector, exactly as the Doily Panel draws it.
+       Also used by the OcclusionPruner, which has to work on the same pixels. */
+
+    static int computeX(double polar, int distFromCenter, int radius, double angleStep, int centerX){
+        int x = (int) (Math.cos(polar * angleStep) * distFromCenter) + centerX;
+        x -= Math.cos(polar) * (radius/2);
+        return x;
+    }
+
+    static int computeY(double polar, int distFromCenter, int radius, double angleStep, int centerY){
+        int y = (int) (Math.sin(polar * angleStep) * distFromCenter) + centerY;
+        y -= Math.sin(polar) * (radius/2);
+        return y;
+    }
+
+    static int computeMirroredX(double polar, int distFromCenter, double angleStep, int centerX){
+        return (int) (Math.cos(angleStep * (1.0 - polar)) * distFromCenter) + centerX;
+    }
+
+    static int computeMirroredY(double polar, int distFromCenter, double angleStep, int centerY){
+        return (int) (Math.sin(angleStep * (1.0 - polar)) * distFromCenter) + centerY;
+    }
+
+    public void truncate(int newCount){
+        // Drops the cached positions above newCount, e.g. after dots were popped off the DotList.
+        count = Math.min(count, newCount);
+    }
+
+    public void removeMarked(BitSet marked){
+        // Removes the cached positions of the marked dots, mirroring DotList.removeMarked().
+        int kept = marked.nextSetBit(0);
+        if (kept < 0 || kept >= count){
+            return;
+        }
+        for (int i = kept + 1; i < count; i++){
+            if (!marked.get(i)){
+                x[kept] = x[i];
+                y[kept] = y[i];
+                mirroredX[kept] = mirroredX[i];
+                mirroredY[kept] = mirroredY[i];
+                kept++;
+            }
+        }
+        count = kept;
+    }
+
+    //Getters. Only valid for indices below the DotList size after update() was called.
+
+    public int getX(int index){
+        return x[index];
+    }
+
+    public int getY(int index){
+        return y[index];
+    }
+
+    public int getMirroredX(int index){
+        return mirroredX[index];
+    }
+
+    public int getMirroredY(int index){
+        return mirroredY[index];
+    }
+}
@@ -0,0 +1,358 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class DotList {
+    /* Growable list of dots, used as a stack by the Doily Panel.
+       Rather than storing one Dot object per dot, every attribute is stored in its own primitive array
+       (one entry per dot) and colours are packed as ARGB ints. A dot therefore costs 21 bytes, with no object
+       header, no Color reference and no synchronisation, which matters once a doily holds millions of dots.
+
+       Dots drawn by dragging the mouse form strokes : each dot records whether it is joined to the dot below it.
+       A stroke is a dot followed by the dots joined to it (with the same radius and colour), and is drawn as a single
+       line through the dots rather than dot by dot (see getStrokeEnd()). */
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // Dot Theta -> angle between dot and closest sector, as a fraction of the sector
+    private double[] polars;
+
+    // Dot polar radius
+    private int[] distsFromCenter;
+
+    // Dot radius
+    private int[] radii;
+
+    // Dot colour, packed as ARGB
+    private int[] colors;
+
+    // Whether the dot continues the stroke of the dot below it
+    private boolean[] joined;
+
+    private int size;
+
+    public DotList(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DotList(int capacity){
+        capacity = Math.max(capacity, 1);
+        polars = new double[capacity];
+        distsFromCenter = new int[capacity];
+        radii = new int[capacity];
+        colors = new int[capacity];
+        joined = new boolean[capacity];
+    }
+
+    public DotList(DotList dotList){
+        // Constructor to create a copy of a dot list
+        this(dotList.size);
+        System.arraycopy(dotList.polars, 0, polars, 0, dotList.size);
+        System.arraycopy(dotList.distsFromCenter, 0, distsFromCenter, 0, dotList.size);
+        System.arraycopy(dotList.radii, 0, radii, 0, dotList.size);
+        System.arraycopy(dotList.colors, 0, colors, 0, dotList.size);
+        System.arraycopy(dotList.joined, 0, joined, 0, dotList.size);
+        size = dotList.size;
+    }
+
+    DotList(double[] polars, int[] distsFromCenter, int[] radii, int[] colors, boolean[] joined){
+        // Wraps already filled arrays (all of the same length) without copying them. Used to load doilies in bulk.
+        this.polars = polars;
+        this.distsFromCenter = distsFromCenter;
+        this.radii = radii;
+        this.colors = colors;
+        this.joined = joined;
+        this.size = polars.length;
+        if (size == 0){
+            grow();
+        }
+    }
+
+    public void push(double polar, int distFromCenter, int radius, int color){
+        // Adds a dot, not joined to any other, to the top of the list.
+        push(polar, distFromCenter, radius, color, false);
+    }
+
+    public void push(double polar, int distFromCenter, int radius, int color, boolean joined){
+        // Adds a dot to the top of the list, growing the arrays if they are full. joined continues the stroke of the dot below.
+        if (size == polars.length){
+            grow();
+        }
+        polars[size] = polar;
+        distsFromCenter[size] = distFromCenter;
+        radii[size] = radius;
+        colors[size] = color;
+        this.joined[size] = joined;
+        size++;
+    }
+
+    public void push(Dot dot){
+        push(dot.getPolar(), dot.getDistFromCenter(), dot.getRadius(), dot.getColor().getRGB());
+    }
+
+    public void pop(){
+        // Removes the dot at the top of the list.
+        if (size == 0){
+            throw new IllegalStateException("Cannot pop from an empty dot list");
+        }
+        size--;
+    }
+
+    public int popTo(DotList target, int count){
+        /* Pops up to count dots off this list and pushes them onto target, one at a time.
+           Like popping and pushing a Stack, the order of the moved dots is reversed. Returns the number of dots moved. */
+        count = Math.min(count, size);
+        for (int i = 0; i < count; i++){
+            int top = size - 1;
+            target.push(polars[top], distsFromCenter[top], radii[top], colors[top], joined[top]);
+            size--;
+        }
+        return count;
+    }
+
+    public void truncate(int newSize){
+        // Drops every dot above newSize.
+        if (newSize < 0 || newSize > size){
+            throw new IndexOutOfBoundsException("Cannot truncate " + size + " dots to " + newSize);
+        }
+        size = newSize;
+    }
+
+    public void removeBottom(int count){
+        // Drops the count dots at the bottom of the list, moving the others down.
+        if (count < 0 || count > size){
+            throw new IndexOutOfBoundsException("Cannot remove " + count + " of " + size + " dots");
+        }
+        size -= count;
+        System.arraycopy(polars, count, polars, 0, size);
+        System.arraycopy(distsFromCenter, count, distsFromCenter, 0, size);
+        System.arraycopy(radii, count, radii, 0, size);
+        System.arraycopy(colors, count, colors, 0, size);
+        System.arraycopy(joined, count, joined, 0, size);
+    }
+
+    public int removeMarked(BitSet marked){
+        /* Removes every dot whose index is set in marked, keeping the remaining dots in the same order.
+           Strokes are cut where dots are removed : a dot joined to a removed dot starts a new stroke.
+           Returns the number of dots removed. */
+        int kept = marked.nextSetBit(0);
+        if (kept < 0 || kept >= size){
+            return 0;
+        }
+        for (int i = kept + 1; i < size; i++){
+            if (!marked.get(i)){
+                polars[kept] = polars[i];
+                distsFromCenter[kept] = distsFromCenter[i];
+                radii[kept] = radii[i];
+                colors[kept] = colors[i];
+                joined[kept] = joined[i] && !marked.get(i - 1);
+                kept++;
+            }
+        }
+        int removed = size - kept;
+        size = kept;
+        return removed;
+    }
+
+    public void insertAt(int[] indices, DotList inserted){
+        /* Inverse of removeMarked() : inserts the dots of inserted so that dot i ends up at indices[i].
+           indices must be increasing, and valid positions in the resulting list. */
+        int newSize = size + inserted.size();
+        while (polars.length < newSize){
+            grow();
+        }
+        int read = size - 1;
+        int next = inserted.size() - 1;
+        for (int write = newSize - 1; write >= 0 && next >= 0; write--){
+            if (indices[next] == write){
+                polars[write] = inserted.polars[next];
+                distsFromCenter[write] = inserted.distsFromCenter[next];
+                radii[write] = inserted.radii[next];
+                colors[write] = inserted.colors[next];
+                joined[write] = inserted.joined[next];
+                next--;
+            } else {
+                polars[write] = polars[read];
+                distsFromCenter[write] = distsFromCenter[read];
+                radii[write] = radii[read];
+                colors[write] = colors[read];
+                joined[write] = joined[read];
+                read--;
+            }
+        }
+        size = newSize;
+    }
+
+    public int getStrokeEnd(int start, int to){
+        /* Returns the end (exclusive, at most to) of the stroke starting at start : the index of the first dot after
+           start which is not joined to the dot below it, or which has a different radius or colour. */
+        int end = start + 1;
+        while (end < to && continuesStroke(end)){
+            end++;
+        }
+        return end;
+    }
+
+    public int getStrokeStart(int index){
+        // Returns the index of the first dot of the stroke the dot at index belongs to.
+        checkIndex(index);
+        while (continuesStroke(index)){
+            index--;
+        }
+        return index;
+    }
+
+    public boolean continuesStroke(int index){
+        // Whether the dot at index is drawn as part of the same line as the dot below it.
+        return index > 0 && index < size && joined[index] && radii[index - 1] == radii[index] && colors[index - 1] == colors[index];
+    }
+
+    public void clear(){
+        size = 0;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public boolean isEmpty(){
+        return size == 0;
+    }
+
+    public Dot getDot(int index){
+        // Creates a Dot object for the dot at index. Only meant for code which is not performance sensitive.
+        return new Dot(getPolar(index), getDistFromCenter(index), getRadius(index), new java.awt.Color(getColor(index), true));
+    }
+
+    public Cursor cursor(){
+        return new Cursor(0, size);
+    }
+
+    public Cursor cursor(int from, int to){
+        // Returns a cursor over the dots in [from, to).
+        if (from < 0 || to > size || from > to){
+            throw new IndexOutOfBoundsException("Invalid range [" + from + ", " + to + ") for " + size + " dots");
+        }
+        return new Cursor(from, to);
+    }
+
+    // Direct access to the underlying arrays, for bulk IO only (see DoilyBinaryFile). Only the first size() entries are used.
+
+    double[] polarArray(){
+        return polars;
+    }
+
+    int[] distFromCenterArray(){
+        return distsFromCenter;
+    }
+
+    int[] radiusArray(){
+        return radii;
+    }
+
+    int[] colorArray(){
+        return colors;
+    }
+
+    boolean[] joinedArray(){
+        return joined;
+    }
+
+    private void grow(){
+        int capacity = polars.length + (polars.length >> 1) + 1;
+        polars = Arrays.copyOf(polars, capacity);
+        distsFromCenter = Arrays.copyOf(distsFromCenter, capacity);
+        radii = Arrays.copyOf(radii, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        joined = Arrays.copyOf(joined, capacity);
+    }
+
+    private void checkIndex(int index){
+        if (index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size + " dots");
+        }
+    }
+
+    //Getters
+
+    public double getPolar(int index){
+        checkIndex(index);
+        return polars[index];
+    }
+
+    public int getDistFromCenter(int index){
+        checkIndex(index);
+        return distsFromCenter[index];
+    }
+
+    public int getRadius(int index){
+        checkIndex(index);
+        return radii[index];
+    }
+
+    public int getColor(int index){
+        checkIndex(index);
+        return colors[index];
+    }
+
+    public boolean isJoined(int index){
+        checkIndex(index);
+        return joined[index];
+    }
+
+    public void setJoined(int index, boolean joined){
+        checkIndex(index);
+        this.joined[index] = joined;
+    }
+
+    public class Cursor {
+        /* Iterates over a range of dots without creating an object per dot. Call next() to move onto the next
+           dot, then read its attributes with the getters:
+
+               DotList.Cursor cursor = dots.cursor();
+               while (cursor.next()){
+                   ... cursor.getPolar() ...
+               }
+         */
+        private int index;
+        private final int end;
+
+        private Cursor(int from, int to){
+            this.index = from - 1;
+            this.end = to;
+        }
+
+        public boolean next(){
+            // Moves onto the next dot. Returns false once every dot in the range has been visited.
+            if (index + 1 >= end){
+                index = end;
+                return false;
+            }
+            index++;
+            return true;
+        }
+
+        public int getIndex(){
+            return index;
+        }
+
+        public double getPolar(){
+            return polars[index];
+        }
+
+        public int getDistFromCenter(){
+            return distsFromCenter[index];
+        }
+
+        public int getRadius(){
+            return radii[index];
+        }
+
+        public int getColor(){
+            return colors[index];
+        }
+
+        public boolean isJoined(){
+            return joined[index];
+        }
+    }
+}
@@ -0,0 +1,310 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+public class DotRasterizer {
+    /* Draws dots and strokes straight into the pixels of a TYPE_INT_ARGB or TYPE_INT_ARGB_PRE image, without Java2D.
+       Filling an oval through a Graphics2D validates the rendering pipeline and builds the oval's shape on every call,
+       which costs more than the few pixels most dots cover. Here :
+
+       - single dots are copied from tables of the pixels a dot of each diameter covers (a span per row, or with
+         antialiasing the part of each pixel covered), computed once per diameter. Dots are placed on whole pixels,
+         so rotated dots may land up to half a pixel away from where Java2D would draw them.
+       - strokes (see DotList) are drawn as a line through the centers of their dots, as wide as the dots with round
+         ends, like the Doily Panel's BasicStroke. The part of each pixel within the line is added up first, then
+         blended once, so a translucent stroke is not darker where its dots overlap.
+
+       Colours are blended over the image (source over), whether the image is premultiplied or not. Without
+       antialiasing, a pixel of a stroke is covered if its center is, which differs from Java2D's stroke (made of
+       curves) on a few pixels of its edge.
+
+       Taking the pixels of the image (DataBufferInt.getData()) makes Java2D give up managing it : it is never cached
+       in video memory again, so drawing it onto the screen goes through the software loops from then on, even once
+       the rasterizer is dropped. The Doily Panel creates new images when direct rasterizing is switched off. */
+
+    private final BufferedImage image;
+    private final int[] pixels;
+    private final int width, height;
+    private final boolean premultiplied;
+    private boolean antialiasing = false;
+
+    /* Pixels covered by a dot of each diameter : first and last (exclusive) column of each row, and the coverage masks.
+       Java2D fills translucent dots a little differently from opaque ones, so they have their own spans. */
+    private int[][] spanStarts = new int[0][], spanEnds = new int[0][];
+    private int[][] translucentSpanStarts = new int[0][], translucentSpanEnds = new int[0][];
+    private byte[][] masks = new byte[0][];
+
+    // Coverage of the stroke being drawn, and the first and last (inclusive) columns touched in each row.
+    private byte[] coverage;
+    private int[] rowFirst, rowLast;
+
+    public DotRasterizer(BufferedImage image){
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB && image.getType() != BufferedImage.TYPE_INT_ARGB_PRE){
+            throw new IllegalArgumentException("Only TYPE_INT_ARGB and TYPE_INT_ARGB_PRE images can be rasterized into");
+        }
+        this.image = image;
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.premultiplied = image.isAlphaPremultiplied();
+    }
+
+    public void fillDot(double centerX, double centerY, int diameter, int argb){
+        // Fills the dot of the given diameter centered on (centerX, centerY), placed on the closest whole pixel.
+        if (diameter <= 0 || (argb >>> 24) == 0){
+            return;
+        }
+        prepareDiameter(diameter);
+        int left = (int) Math.round(centerX - diameter / 2.0), top = (int) Math.round(centerY - diameter / 2.0);
+        int size = diameter + 1;
+        if (left >= width || top >= height || left + size <= 0 || top + size <= 0){
+            return;
+        }
+        int firstRow = Math.max(0, -top), lastRow = Math.min(size, height - top);
+        if (antialiasing){
+            byte[] mask = masks[diameter];
+            int firstColumn = Math.max(0, -left), lastColumn = Math.min(size, width - left);
+            for (int row = firstRow; row < lastRow; row++){
+                int offset = (top + row) * width + left;
+                for (int column = firstColumn; column < lastColumn; column++){
+                    int covered = mask[row * size + column] & 0xff;
+                    if (covered != 0){
+                        pixels[offset + column] = blend(pixels[offset + column], argb, covered);
+                    }
+                }
+            }
+            return;
+        }
+        boolean opaque = (argb >>> 24) == 0xff;
+        int[] starts = opaque ? spanStarts[diameter] : translucentSpanStarts[diameter];
+        int[] ends = opaque ? spanEnds[diameter] : translucentSpanEnds[diameter];
+        int source = premultiplied ? premultiply(argb) : argb;
+        for (int row = firstRow; row < lastRow; row++){
+            int offset = (top + row) * width + left;
+            int start = Math.max(starts[row], -left), end = Math.min(ends[row], width - left);
+            if (start >= end){
+                continue;
+            }
+            if (opaque){
+                Arrays.fill(pixels, offset + start, offset + end, source);
+            } else {
+                for (int column = start; column < end; column++){
+                    pixels[offset + column] = blend(pixels[offset + column], argb, 255);
+                }
+            }
+        }
+    }
+
+    public void drawStroke(float[] xs, float[] ys, int from, int to, int diameter, int argb){
+        /* Draws the stroke through the centers (xs[i], ys[i]) for i in [from, to), as wide as diameter, with round
+           ends and joins. The pixels it covers are blended once, however many of its segments cover them. */
+        if (to - from <= 0 || diameter <= 0 || (argb >>> 24) == 0){
+            return;
+        }
+        if (coverage == null){
+            coverage = new byte[width * height];
+            rowFirst = new int[height];
+            rowLast = new int[height];
+            Arrays.fill(rowFirst, Integer.MAX_VALUE);
+            Arrays.fill(rowLast, -1);
+        }
+        double radius = diameter / 2.0;
+        int firstRow = height, lastRow = -1;
+        for (int i = from; i < to; i++){
+            // A single dot is a segment from its center to itself.
+            int previous = Math.max(from, i - 1);
+            int[] rows = addSegment(snap(xs[previous]), snap(ys[previous]), snap(xs[i]), snap(ys[i]), radius);
+            if (rows != null){
+                firstRow = Math.min(firstRow, rows[0]);
+                lastRow = Math.max(lastRow, rows[1]);
+            }
+        }
+        for (int row = firstRow; row <= lastRow; row++){
+            int offset = row * width;
+            for (int column = rowFirst[row]; column <= rowLast[row]; column++){
+                int covered = coverage[offset + column] & 0xff;
+                if (covered != 0){
+                    coverage[offset + column] = 0;
+                    pixels[offset + column] = blend(pixels[offset + column], argb, covered);
+                }
+            }
+            rowFirst[row] = Integer.MAX_VALUE;
+            rowLast[row] = -1;
+        }
+    }
+
+    private double snap(double coordinate){
+        // Without antialiasing, Java2D moves the points of lines to a quarter past the pixel, which is copied here.
+        return antialiasing ? coordinate : Math.floor(coordinate + 0.25) + 0.25;
+    }
+
+    private final int[] segmentRows = new int[2];
+
+    private int[] addSegment(double x0, double y0, double x1, double y1, double radius){
+        /* Adds the line of the given radius from (x0, y0) to (x1, y1) to the stroke's coverage. Returns the first and
+           last rows touched, or null if it is out of the image. */
+        double reach = radius + (antialiasing ? 0.5 : 0);
+        int firstColumn = Math.max(0, (int) Math.floor(Math.min(x0, x1) - reach));
+        int lastColumn = Math.min(width - 1, (int) Math.ceil(Math.max(x0, x1) + reach));
+        int firstRow = Math.max(0, (int) Math.floor(Math.min(y0, y1) - reach));
+        int lastRow = Math.min(height - 1, (int) Math.ceil(Math.max(y0, y1) + reach));
+        if (firstColumn > lastColumn || firstRow > lastRow){
+            return null;
+        }
+        double dx = x1 - x0, dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        for (int row = firstRow; row <= lastRow; row++){
+            double py = row + 0.5 - y0;
+            int offset = row * width;
+            for (int column = firstColumn; column <= lastColumn; column++){
+                double px = column + 0.5 - x0;
+                // Distance to the closest point of the line.
+                double t = (lengthSquared > 0) ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+                double ex = px - t * dx, ey = py - t * dy;
+                double distance = Math.sqrt(ex * ex + ey * ey);
+                int covered;
+                if (antialiasing){
+                    covered = (int) Math.round(Math.max(0, Math.min(1, reach - distance)) * 255);
+                } else {
+                    covered = (distance < radius) ? 255 : 0;
+                }
+                if (covered > (coverage[offset + column] & 0xff)){
+                    coverage[offset + column] = (byte) covered;
+                    rowFirst[row] = Math.min(rowFirst[row], column);
+                    rowLast[row] = Math.max(rowLast[row], column);
+                }
+            }
+        }
+        segmentRows[0] = firstRow;
+        segmentRows[1] = lastRow;
+        return segmentRows;
+    }
+
+    private void prepareDiameter(int diameter){
+        /* Computes the tables of dots of the given diameter, the first time a dot that wide is drawn. They are taken
+           from a dot filled by Java2D, so the dots are the same as the Doily Panel's ovals. Java2D slightly moves
+           shapes to fit the pixels, so a dot may cover one more row and column than its diameter. */
+        if (diameter < masks.length && masks[diameter] != null){
+            return;
+        }
+        if (diameter >= masks.length){
+            spanStarts = Arrays.copyOf(spanStarts, diameter + 1);
+            spanEnds = Arrays.copyOf(spanEnds, diameter + 1);
+            translucentSpanStarts = Arrays.copyOf(translucentSpanStarts, diameter + 1);
+            translucentSpanEnds = Arrays.copyOf(translucentSpanEnds, diameter + 1);
+            masks = Arrays.copyOf(masks, diameter + 1);
+        }
+        int size = diameter + 1;
+        BufferedImage dot = createJava2DDot(diameter, Color.white, false);
+        spanStarts[diameter] = new int[size];
+        spanEnds[diameter] = new int[size];
+        findSpans(dot, spanStarts[diameter], spanEnds[diameter]);
+        dot = createJava2DDot(diameter, new Color(255, 255, 255, 128), false);
+        translucentSpanStarts[diameter] = new int[size];
+        translucentSpanEnds[diameter] = new int[size];
+        findSpans(dot, translucentSpanStarts[diameter], translucentSpanEnds[diameter]);
+
+        dot = createJava2DDot(diameter, Color.white, true);
+        byte[] mask = new byte[size * size];
+        for (int row = 0; row < size; row++){
+            for (int column = 0; column < size; column++){
+                mask[row * size + column] = (byte) (dot.getRGB(column, row) >>> 24);
+            }
+        }
+        masks[diameter] = mask;
+    }
+
+    private static BufferedImage createJava2DDot(int diameter, Color color, boolean antialiasing){
+        // A dot of the given diameter filled by Java2D, in the top left corner of an image one pixel wider.
+        BufferedImage dot = new BufferedImage(diameter + 1, diameter + 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = dot.createGraphics();
+        if (antialiasing){
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        g2d.setColor(color);
+        g2d.fillOval(0, 0, diameter, diameter);
+        g2d.dispose();
+        return dot;
+    }
+
+    private static void findSpans(BufferedImage dot, int[] starts, int[] ends){
+        // The first and last (exclusive) column of the pixels filled in each row of dot.
+        for (int row = 0; row < dot.getHeight(); row++){
+            int column = 0;
+            while (column < dot.getWidth() && dot.getRGB(column, row) == 0){
+                column++;
+            }
+            starts[row] = column;
+            while (column < dot.getWidth() && dot.getRGB(column, row) != 0){
+                column++;
+            }
+            ends[row] = column;
+        }
+    }
+
+    private int blend(int destination, int argb, int covered){
+        // Blends colour argb over the destination pixel, with the given coverage (0 to 255), rounding as Java2D does.
+        int alpha = multiply(argb >>> 24, covered);
+        if (alpha == 0){
+            return destination;
+        }
+        int red = (argb >> 16) & 0xff, green = (argb >> 8) & 0xff, blue = argb & 0xff;
+        if (alpha == 0xff){
+            // Opaque colours are the same premultiplied or not.
+            return argb;
+        }
+        int inverse = 255 - alpha;
+        int destinationAlpha = destination >>> 24;
+        int destinationRed = (destination >> 16) & 0xff, destinationGreen = (destination >> 8) & 0xff, destinationBlue = destination & 0xff;
+        if (premultiplied){
+            return ((alpha + multiply(inverse, destinationAlpha)) << 24)
+                    | ((multiply(alpha, red) + multiply(inverse, destinationRed)) << 16)
+                    | ((multiply(alpha, green) + multiply(inverse, destinationGreen)) << 8)
+                    | (multiply(alpha, blue) + multiply(inverse, destinationBlue));
+        }
+        // The destination's colour counts as much as its alpha shows through the source.
+        int destinationWeight = multiply(inverse, destinationAlpha);
+        int resultAlpha = alpha + destinationWeight;
+        if (destinationWeight == 0){
+            return (resultAlpha << 24) | (red << 16) | (green << 8) | blue;
+        }
+        int resultRed = multiply(alpha, red) + multiply(destinationWeight, destinationRed);
+        int resultGreen = multiply(alpha, green) + multiply(destinationWeight, destinationGreen);
+        int resultBlue = multiply(alpha, blue) + multiply(destinationWeight, destinationBlue);
+        if (resultAlpha < 0xff){
+            resultRed = divide(resultRed, resultAlpha);
+            resultGreen = divide(resultGreen, resultAlpha);
+            resultBlue = divide(resultBlue, resultAlpha);
+        }
+        return (resultAlpha << 24) | (resultRed << 16) | (resultGreen << 8) | resultBlue;
+    }
+
+    private static int multiply(int a, int b){
+        // a * b / 255, rounded.
+        return (a * b + 127) / 255;
+    }
+
+    private static int divide(int a, int b){
+        // a * 255 / b, rounded and capped at 255.
+        return Math.min(255, (a * 255 + b / 2) / b);
+    }
+
+    private static int premultiply(int argb){
+        int alpha = argb >>> 24;
+        return (alpha << 24) | (multiply(alpha, (argb >> 16) & 0xff) << 16) | (multiply(alpha, (argb >> 8) & 0xff) << 8)
+                | multiply(alpha, argb & 0xff);
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public void setAntialiasing(boolean antialiasing) {
+        this.antialiasing = antialiasing;
+    }
+
+    public boolean isAntialiasing() {
+        return antialiasing;
+    }
+}
@@ -3,30 +3,98 @@ import javax.swing.border.Border;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public class GalleryPanel extends JPanel{
-    static int MAX_IMAGES = 12;
+    /* The gallery holds any number of doilies, in columns of ROW_COUNT, scrolling horizontally.
+       Rather than one component per doily, a single ThumbnailGrid component paints the doilies which are visible
+       in the scroll pane, one cell after the other. Adding or removing doilies only updates the list of thumbnails
+       and repaints the affected cells, so the gallery stays fast with thousands of doilies.
+       Thumbnails are also kept compressed (they are mostly black, so they shrink a lot), and only the visible ones are
+       decompressed, into a cache of THUMBNAIL_CACHE_SIZE images. This keeps memory low with thousands of doilies. */
 
     private JScrollPane scrollPane;
-    private JPanel gridPanel;
-    ArrayList<ImagePanel> imagePanels;
-    ArrayList<ImagePanel> emptyPanels;
-    // This gallery panel can hold up to 12 ( 6 * 2 ) images.
+    private ThumbnailGrid thumbnailGrid;
+    ArrayList<GalleryEntry> entries;
+    // The gallery shows 2 rows of doilies, and at least 6 columns (empty cells are filled with placeholders).
     private final int ROW_COUNT = 2;
     private final int COL_COUNT = 6;
-    private final int MAX_PANELS_SCREEN = ROW_COUNT * COL_COUNT;
+    // Size of a cell in the grid, including its border.
+    private final int CELL_SIZE = 370;
+    // Number of decompressed thumbnails kept, a few screens worth.
+    private final int THUMBNAIL_CACHE_SIZE = 4 * ROW_COUNT * COL_COUNT;
     private Dimension doilyPanelDimensions;
     private Display display;
     private Border selectedBorder, unselectedBorder;
-    private ImagePanelClickListener imagePanelClickListener;
 
     private JButton removeButton, selectAllButton, deselectAllButton;
 
+    static class GalleryEntry {
+        /* A doily of the gallery : its scaled down image (compressed ARGB pixels) and whether the user selected it.
+           Doilies still being rendered in the background are placeholders, without a thumbnail. */
+        final int width, height;
+        final byte[] compressedThumbnail;
+        boolean selected = false;
+
+        GalleryEntry(){
+            width = 0;
+            height = 0;
+            compressedThumbnail = null;
+        }
+
+        boolean isPending(){
+            return compressedThumbnail == null;
+        }
+
+        GalleryEntry(BufferedImage thumbnail){
+            width = thumbnail.getWidth();
+            height = thumbnail.getHeight();
+            int[] pixels = thumbnail.getRGB(0, 0, width, height, null, 0, width);
+            ByteBuffer bytes = ByteBuffer.allocate(pixels.length * Integer.BYTES);
+            bytes.asIntBuffer().put(pixels);
+
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(bytes.array());
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            byte[] chunk = new byte[1 << 16];
+            while (!deflater.finished()){
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+            deflater.end();
+            compressedThumbnail = compressed.toByteArray();
+        }
+
+        BufferedImage getThumbnail(){
+            // Decompresses the thumbnail.
+            byte[] bytes = new byte[width * height * Integer.BYTES];
+            Inflater inflater = new Inflater();
+            inflater.setInput(compressedThumbnail);
+            try {
+                inflater.inflate(bytes);
+            } catch (DataFormatException e){
+                throw new IllegalStateException("Corrupted thumbnail", e);
+            } finally {
+                inflater.end();
+            }
+            int[] pixels = new int[width * height];
+            ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+            BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            thumbnail.setRGB(0, 0, width, height, pixels, 0, width);
+            return thumbnail;
+        }
+    }
+
 
     public GalleryPanel(Display display){
         // Use a border layout. Scrolled Pane will be in the center, three control buttons will be NORTH.
@@ -36,23 +104,18 @@ public class GalleryPanel extends JPanel{
         this.display = display;
         this.doilyPanelDimensions = new Dimension(DoilyPanel.WIDTH, DoilyPanel.HEIGHT);
 
-        // Lists to store image panels and empty panels
-        imagePanels = new ArrayList<>();
-        emptyPanels = new ArrayList<>();
+        // List of the doilies in the gallery, in display order.
+        entries = new ArrayList<>();
 
         // Two borders : one for selected panels and one for unselected panels.
         selectedBorder = BorderFactory.createLineBorder(Color.red, 2);
         unselectedBorder = BorderFactory.createLineBorder(Color.blue, 2);
 
-        // One click listener for all image panels
-        imagePanelClickListener = new ImagePanelClickListener();
-
-        // Create a gridpanel to store all images. This will be the parent component that will reside in the scroll pane.
-        gridPanel = new JPanel(new GridLayout(ROW_COUNT, COL_COUNT));
-        gridPanel.setPreferredSize(new Dimension(6 * 370, 2*370));
+        // The grid painting the doilies. This will be the component that will reside in the scroll pane.
+        thumbnailGrid = new ThumbnailGrid();
 
-        // ScrollPane containing one JPanel with a gridlayout. Our application can only display 8 doilies at a time. ScrollPanel enables showing of all 12.
-        scrollPane = new JScrollPane(gridPanel);
+        // ScrollPane containing the grid. Our application can only display 8 doilies at a time. ScrollPanel enables showing of all of them.
+        scrollPane = new JScrollPane(thumbnailGrid);
         scrollPane.getHorizontalScrollBar().setUnitIncrement(16);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
@@ -85,172 +148,214 @@ public class GalleryPanel extends JPanel{
         add(miniControlPanel, BorderLayout.NORTH);
 
 
-        // Finally add the scroll pane (which contains the Panel which itself contains the images) to CENTER.
+        // Finally add the scroll pane (which contains the grid which itself paints the images) to CENTER.
         add(scrollPane, BorderLayout.CENTER);
 
     }
 
-    public void addImage(BufferedImage bufferedImage){
-        // Creates an image panel to add to the gallery panel.
-        ImagePanel imagePanel = new ImagePanel(bufferedImage, doilyPanelDimensions);
-
-        // By default, the imagepanel is unselected and therefore has an unselected border style.
-        imagePanel.setBorder(unselectedBorder);
-
-        // Listen for clicks. Needed for selection capability.
-        imagePanel.addMouseListener(imagePanelClickListener);
-
-        // Add the newly created image panel to gridPanel and the List of image panels. (references are stored to enable event listening, deletion, changing borders).
-        gridPanel.add(imagePanel);
-        imagePanels.add(imagePanel);
-        update();
-    }
-
-    public void update(){
-        // Update the Gallery Panel (called when Doily is added or removed).
-
-        //Clear everything.
-        clear();
-
-        //Add everything again. This recalculates the number of empty panels to add.
-        addAll();
+    public void addSnapshot(DoilySnapshot doily){
+        /* Adds a doily to the end of the gallery without rendering it on the EDT. A placeholder is shown straight away,
+           and replaced once the doily has been rendered, scaled down and compressed in the background. */
+        GalleryEntry placeholder = new GalleryEntry();
+        entries.add(placeholder);
+        thumbnailGrid.revalidate();
+        thumbnailGrid.repaintCell(entries.size() - 1);
+
+        ThumbnailRenderer.render(doily)
+                .thenApply(thumbnail -> new GalleryEntry(thumbnail))
+                .whenComplete((entry, error) -> SwingUtilities.invokeLater(() -> {
+                    // The placeholder may have moved (or been removed by the user) in the meantime.
+                    int index = entries.indexOf(placeholder);
+                    if (index < 0){
+                        return;
+                    }
+                    if (error != null){
+                        System.err.println("Could not render the doily : " + error);
+                        entries.remove(index);
+                        thumbnailGrid.revalidate();
+                        thumbnailGrid.repaintFrom(index);
+                        return;
+                    }
+                    entry.selected = placeholder.selected;
+                    entries.set(index, entry);
+                    thumbnailGrid.repaintCell(index);
+                }));
     }
 
-    public void clear(){
-        // Clears the gallery panel. This is used to redraw the gallery panel in the event of a doily being added or removed.
-
-        //Remove all the image panels from the grid (gui elements).
-        for (ImagePanel imagePanel: imagePanels){
-            gridPanel.remove(imagePanel);
-        }
-
-        //Redraw the gridpanel
-        gridPanel.revalidate();
-        gridPanel.repaint();
-        repaint();
-
-
-        //Remove all the empty panels.
-        for (ImagePanel emptyPanel : emptyPanels){
-            gridPanel.remove(emptyPanel);
+    public void selectAll(){
+        // Select every doily. Selected doilies have a different border to show the user that they have been selected.
+        for (GalleryEntry entry : entries){
+            entry.selected = true;
         }
 
-        /*Clear the array list storing the empty panels.
-          This is not very efficient as we're continuously destroying and recreating empty panels.
-          However, efficiency is not an issue here, and empty image panels are relatively light weight. */
-        emptyPanels.clear();
+        thumbnailGrid.repaint();
     }
 
-    public void addAll(){
-        // Adds all the image panels to the gallery, then fills the remaining spaces with empty panels (if required).
-        for (ImagePanel imagePanel: imagePanels){
-            gridPanel.add(imagePanel);
+    public void deselectAll(){
+        // Deselect every doily.
+        for (GalleryEntry entry : entries){
+            entry.selected = false;
         }
 
-        fillHoles();
+        thumbnailGrid.repaint();
     }
 
-    public void fillHoles(){
-        for (int i = 0; i < MAX_PANELS_SCREEN - imagePanels.size(); i++){
-            //Fill the remaining spaces with empty panels
-            //This loop will not run if the screen is full
-            addEmptyPanel();
+    public void removeSelected(){
+        // Remove currently selected doilies. This may (and most of the time will) remove multiple images.
+        int firstRemoved = -1;
+        for (int i = 0; i < entries.size(); i++){
+            if (entries.get(i).selected){
+                firstRemoved = i;
+                break;
+            }
         }
-    }
-
-    public void addEmptyPanel(){
-        // Adds an empty panel. This empty panel is filled with a green circle.
-        ImagePanel emptyPanel = new ImagePanel(null, this.doilyPanelDimensions);
+        if (firstRemoved < 0){
+            return;
+        }
+        entries.removeIf(entry -> entry.selected);
+        thumbnailGrid.thumbnailCache.keySet().removeIf(entry -> entry.selected);
 
-        gridPanel.add(emptyPanel);
-        emptyPanels.add(emptyPanel);
+        // Doilies before the first removed one do not move, so only the cells after it need repainting.
+        thumbnailGrid.revalidate();
+        thumbnailGrid.repaintFrom(firstRemoved);
+    }
 
-        repaint();
+    public int getNumberImages(){
+        //Returns the current number of images being stored and displayed in the gallery panel
+        return entries.size();
     }
 
-    public void selectAll(){
-        /* For each image panel : set its selected field to true and add a border around
-           the panel to show the user that the panel has been selected */
-        for (ImagePanel imagePanel : imagePanels){
-            imagePanel.setSelected(true);
-            imagePanel.setBorder(selectedBorder);
+    class ThumbnailGrid extends JComponent implements Scrollable {
+        /* Paints the cells of the gallery, column by column. Only the cells within the clip (i.e. visible in the scroll
+           pane) are painted, using a single Image Panel as a rubber stamp (like the renderers of a JList). */
+        private final ImagePanel renderer = new ImagePanel();
+        private final CellRendererPane rendererPane = new CellRendererPane();
+        // Decompressed thumbnails of the most recently painted doilies, least recently used first.
+        final Map<GalleryEntry, BufferedImage> thumbnailCache = new LinkedHashMap<GalleryEntry, BufferedImage>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<GalleryEntry, BufferedImage> eldest) {
+                return size() > THUMBNAIL_CACHE_SIZE;
+            }
+        };
+
+        ThumbnailGrid(){
+            add(rendererPane);
+            setOpaque(true);
+            setBackground(Color.white);
+            // Listen for clicks. Needed for selection capability.
+            addMouseListener(new ImagePanelClickListener());
         }
 
-        repaint();
-    }
-
-    public void deselectAll(){
-        /* For each image panel : set its selected field to false and remove the border around
-           the panel to show the user that the panel has been deselected */
-        for (ImagePanel imagePanel : imagePanels){
-            imagePanel.setSelected(false);
-            imagePanel.setBorder(unselectedBorder);
+        private int getColumnCount(){
+            return Math.max(COL_COUNT, (entries.size() + ROW_COUNT - 1) / ROW_COUNT);
         }
 
-        repaint();
-    }
+        private Rectangle getCellBounds(int index){
+            return new Rectangle((index / ROW_COUNT) * CELL_SIZE, (index % ROW_COUNT) * CELL_SIZE, CELL_SIZE, CELL_SIZE);
+        }
 
-    public void removeSelected(){
-        // Remove currently selected imagePanels. This may (and most of the time will) remove multiple images.
-        Iterator<ImagePanel> it = imagePanels.iterator();
-        ImagePanel imagePanel = null;
-        while (it.hasNext()){
-            imagePanel = it.next();
-            if (imagePanel.isSelected()){
-                gridPanel.remove(imagePanel);
-                it.remove();
+        private int getCellAt(Point point){
+            // Index of the doily at point, or -1 if there is none.
+            int column = point.x / CELL_SIZE;
+            int row = point.y / CELL_SIZE;
+            int index = column * ROW_COUNT + row;
+            if (point.x < 0 || point.y < 0 || row >= ROW_COUNT || index >= entries.size()){
+                return -1;
             }
+            return index;
         }
 
-        update();
-    }
+        void repaintCell(int index){
+            repaint(getCellBounds(index));
+        }
 
-    public int getNumberImages(){
-        //Returns the current number of images being stored and displayed in the gallery panel
-        return imagePanels.size();
-    }
+        void repaintFrom(int index){
+            // Repaints the cells from index onwards, up to the end of the (previous) last column.
+            Rectangle bounds = getCellBounds(index - index % ROW_COUNT);
+            repaint(bounds.x, 0, getWidth() - bounds.x, getHeight());
+        }
 
-    class ImagePanelClickListener implements MouseListener {
         @Override
-        public void mouseClicked(MouseEvent e) {
-            //Mouse Click listener to let the user select/deselect one or more image panels
-            ImagePanel source = (ImagePanel) e.getSource();
-
-            // Loop through image panels until we find the one that was clicked.
-            for (ImagePanel imagePanel: imagePanels){
-                if (imagePanel.equals(source)){
+        public Dimension getPreferredSize() {
+            return new Dimension(getColumnCount() * CELL_SIZE, ROW_COUNT * CELL_SIZE);
+        }
 
-                    //Toggle the selected state. If this panel has been selected, deselect it and vice versa.
-                    if (imagePanel.isSelected()){
-                        imagePanel.setSelected(false);
-                        imagePanel.setBorder(unselectedBorder);
+        @Override
+        protected void paintComponent(Graphics g) {
+            Rectangle clip = g.getClipBounds();
+            if (clip == null){
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+            // Only the columns intersecting the clip are painted.
+            int firstColumn = Math.max(0, clip.x / CELL_SIZE);
+            int lastColumn = Math.min(getColumnCount() - 1, (clip.x + clip.width - 1) / CELL_SIZE);
+            for (int column = firstColumn; column <= lastColumn; column++){
+                for (int row = 0; row < ROW_COUNT; row++){
+                    int index = column * ROW_COUNT + row;
+                    if (index < entries.size()){
+                        GalleryEntry entry = entries.get(index);
+                        renderer.setPending(entry.isPending());
+                        renderer.setImage(entry.isPending() ? null : thumbnailCache.computeIfAbsent(entry, GalleryEntry::getThumbnail));
+                        renderer.setSelected(entry.selected);
+                        renderer.setBorder(entry.selected ? selectedBorder : unselectedBorder);
                     } else {
-                        imagePanel.setSelected(true);
-                        imagePanel.setBorder(selectedBorder);
+                        /* Place holder used to fill space when the gallery has fewer images than fit on screen. */
+                        renderer.setPending(false);
+                        renderer.setImage(null);
+                        renderer.setSelected(false);
+                        renderer.setBorder(null);
                     }
-                    break;
+                    Rectangle cell = getCellBounds(index);
+                    rendererPane.paintComponent(g, renderer, this, cell.x, cell.y, cell.width, cell.height, true);
                 }
             }
+            // Do not keep a reference to the last painted thumbnail.
+            renderer.setImage(null);
         }
 
         @Override
-        public void mousePressed(MouseEvent e) {
-
+        public Dimension getPreferredScrollableViewportSize() {
+            return new Dimension(COL_COUNT * CELL_SIZE, ROW_COUNT * CELL_SIZE);
         }
 
         @Override
-        public void mouseReleased(MouseEvent e) {
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return 16;
+        }
 
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            // Scroll by whole columns.
+            return Math.max(CELL_SIZE, (visibleRect.width / CELL_SIZE) * CELL_SIZE);
         }
 
         @Override
-        public void mouseEntered(MouseEvent e) {
+        public boolean getScrollableTracksViewportWidth() {
+            return false;
+        }
 
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return false;
         }
+    }
 
+    class ImagePanelClickListener extends MouseAdapter {
         @Override
-        public void mouseExited(MouseEvent e) {
+        public void mouseClicked(MouseEvent e) {
+            //Mouse Click listener to let the user select/deselect one or more doilies
+            int index = thumbnailGrid.getCellAt(e.getPoint());
+            if (index < 0){
+                return;
+            }
 
+            //Toggle the selected state. If this doily has been selected, deselect it and vice versa.
+            GalleryEntry entry = entries.get(index);
+            entry.selected = !entry.selected;
+            thumbnailGrid.repaintCell(index);
         }
     }
 
@@ -6,39 +6,51 @@ public class ImagePanel extends JPanel {
 
     private BufferedImage image;
 
-    // Scale factor. This means images in the gallery will be half the width and half the weight of the original doily.
-    private final int scale = 2;
+    // Scale factor. This means images in the gallery will be half the width and half the height of the original doily
+    // (see ThumbnailRenderer).
+    public static final int SCALE = 2;
 
     // Each image has a selected field. By default images are unselected.
     private boolean selected = false;
 
+    // Whether the image is still being rendered (see ThumbnailRenderer), in which case a placeholder is shown.
+    private boolean pending = false;
 
-    public ImagePanel(BufferedImage unscaledImage, Dimension dimension){
-        if (unscaledImage != null){
 
-            this.image = new BufferedImage(unscaledImage.getWidth()/scale, unscaledImage.getHeight()/scale, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = image.createGraphics();
-            g.drawImage(unscaledImage  , 0, 0, unscaledImage.getWidth()/scale, unscaledImage.getHeight()/scale, 0, 0, unscaledImage.getWidth(), unscaledImage.getHeight(), null);
-
-        } else {
-            //In the case of an empty panel, simply set BufferedImage to null
-            this.image = null;
-        }
-        //setPreferredSize(new Dimension(DoilyPanel.WIDTH/scale, DoilyPanel.HEIGHT/scale));
+    public ImagePanel(){
+        /* Image panel without an image, used by the Gallery Panel to paint its cells one after the other (see
+           GalleryPanel.ThumbnailGrid). The already scaled image of each cell is set with setImage() before painting it. */
         setPreferredSize(new Dimension(360, 360));
+    }
 
+    public void setImage(BufferedImage thumbnail){
+        // Sets the (already scaled) image to display, or null for an empty panel.
+        this.image = thumbnail;
+    }
+
+    public void setPending(boolean pending) {
+        this.pending = pending;
     }
 
     public void paintComponent(Graphics g){
         super.paintComponent(g);
 
-        if (this.image != null){
+        if (pending){
+            // Place holder shown while the image is being rendered in the background.
+            g.setColor(Color.darkGray);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setColor(Color.lightGray);
+            String text = "Rendering...";
+            FontMetrics metrics = g.getFontMetrics();
+            g.drawString(text, (getWidth() - metrics.stringWidth(text)) / 2, (getHeight() + metrics.getAscent()) / 2);
+
+        } else if (this.image != null){
             // If this is an image panel with a buffered image, draw the image.
             g.drawImage(this.image, 0, 0, this);
 
         } else {
             /* Place holder referred to as "EmptyPanel". Used to fill space
-               when we have less than 12 images displayed in gallery. */
+               when the gallery has fewer images than fit on screen. */
             g.setColor(Color.white);
 
             // A white filled square to replace an image in the gallery
@@ -0,0 +1,77 @@
+public class LatencyHistogram {
+    /* Histogram of durations (in nanoseconds), used by the PerformanceMonitor.
+       Durations are counted in buckets of logarithmic size : each power of two is split into SUB_BUCKETS buckets, so
+       percentiles are within 1/SUB_BUCKETS (12.5%) of the actual durations, from nanoseconds to minutes, in a few
+       kilobytes and without allocating when recording. The largest duration is kept exactly.
+
+       Not thread safe : the Doily Panel only records durations on the EDT. */
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[SUB_BUCKETS * (64 - SUB_BUCKET_BITS)];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    public void record(long nanos){
+        nanos = Math.max(0, nanos);
+        counts[getBucket(nanos)]++;
+        count++;
+        total += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    private static int getBucket(long nanos){
+        // Durations below SUB_BUCKETS nanoseconds have a bucket each, then each power of two has SUB_BUCKETS buckets.
+        if (nanos < SUB_BUCKETS){
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getBucketEnd(int bucket){
+        // Largest duration counted in the bucket.
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long start = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return start + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getPercentile(double percentile){
+        // Duration (in nanoseconds) which the given percentage of the recorded durations do not exceed.
+        if (count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++){
+            seen += counts[bucket];
+            if (seen >= rank){
+                return Math.min(getBucketEnd(bucket), max);
+            }
+        }
+        return max;
+    }
+
+    public void reset(){
+        java.util.Arrays.fill(counts, 0);
+        count = total = max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return (count == 0) ? 0 : (double) total / count;
+    }
+}
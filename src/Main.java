@@ -1,7 +1,81 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
 public class Main {
 
     public static void main(String[] args){
+        // "--batch" renders saved doilies without any window (see BatchRenderer). Otherwise, start the application.
+        if (args.length > 0 && args[0].equals("--batch")){
+            BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "--export" converts one saved doily to an SVG or PDF (see VectorExporter), or a PNG of any size (see StreamingPngExporter).
+        if (args.length > 0 && args[0].equals("--export")){
+            export(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "--timelapse" replays the drawing of one saved doily as an animated GIF or numbered PNGs (see TimeLapseExporter).
+        if (args.length > 0 && args[0].equals("--timelapse")){
+            exportTimeLapse(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "--serve" starts an HTTP service rendering doilies to PNG (see RenderService).
+        if (args.length > 0 && args[0].equals("--serve")){
+            RenderService.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         Display display = new Display();
     }
 
+    private static void export(String[] args){
+        File output = (args.length > 1) ? new File(args[1]) : null;
+        if (args.length < 2 || args.length > 3 || !(VectorExporter.isVectorFile(output) || StreamingPngExporter.isPngFile(output))){
+            System.err.println("Usage : --export <doily file> <output .svg, .pdf or .png> [width]");
+            System.exit(2);
+        }
+        try {
+            DoilySnapshot doily = DoilyFile.load(new File(args[0]));
+            int width = args.length > 2 ? Integer.parseInt(args[2]) : doily.getCanvasWidth();
+            if (width <= 0){
+                System.err.println("Width must be positive");
+                System.exit(2);
+            }
+            if (StreamingPngExporter.isPngFile(output)){
+                System.out.println(new StreamingPngExporter().export(doily, output, width));
+            } else {
+                VectorExporter.export(doily, output, width);
+            }
+        } catch (IOException | NumberFormatException e){
+            System.err.println("Could not export " + args[0] + " : " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void exportTimeLapse(String[] args){
+        if (args.length < 2 || args.length > 4){
+            System.err.println("Usage : --timelapse <doily file> <output .gif or directory> [width] [frames]");
+            System.exit(2);
+        }
+        try {
+            DoilySnapshot doily = DoilyFile.load(new File(args[0]));
+            File output = new File(args[1]);
+            int width = args.length > 2 ? Integer.parseInt(args[2]) : doily.getCanvasWidth();
+            int frames = args.length > 3 ? Integer.parseInt(args[3]) : TimeLapseExporter.DEFAULT_FRAMES;
+            if (width <= 0 || frames <= 0){
+                System.err.println("Width and frames must be positive");
+                System.exit(2);
+            }
+            TimeLapseExporter exporter = new TimeLapseExporter(doily, width);
+            exporter.setFrames(frames);
+            if (TimeLapseExporter.isGifFile(output)){
+                System.out.println(exporter.exportGif(output));
+            } else {
+                System.out.println(exporter.exportPngs(output));
+            }
+        } catch (IOException | NumberFormatException e){
+            System.err.println("Could not export " + args[0] + " : " + e.getMessage());
+            System.exit(1);
+        }
+    }
 }
@@ -0,0 +1,257 @@
+import java.awt.*;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class OcclusionPruner {
+    /* Finds the dots of a doily which can never be seen, because later opaque dots completely cover them.
+       Painting over the same area again and again leaves thousands of such dots, which still cost a fillOval per
+       sector on every rebuild. The Doily Panel skips the dots found here when drawing; they stay in its DotList, so
+       undo/redo and erasing are unaffected.
+
+       Dots are hidden a whole stroke (see DotList) at a time, as dropping part of a stroke would change the line drawn
+       through the rest of it. The strokes are visited from the top down, while the opaque shapes of the strokes above
+       (their dots and the segments joining them) are accumulated in a coverage raster of the first sector. A stroke
+       is hidden if every pixel within MARGIN pixels of its dots and segments is covered.
+
+       The test is conservative : shapes are shrunk by half a pixel diagonal before being drawn into the raster, so a
+       covered pixel is entirely within one of them, and the tested shapes are grown by MARGIN to allow for their
+       outlines being approximated when drawn. Both the dots and their reflections are tested, so the result holds
+       whether or not drawn points are reflected. Every sector is a rotation of the first one, and the dots of one
+       sector are all drawn before the next sector's, so a dot covered within the first sector is covered in all of them.
+       Positions are the Doily Panel's (see DotGeometry), so the result only holds for the number of sectors and the
+       panel center it was computed for.
+
+       Each pixel of the raster holds the lowest index (plus one) of the dots covering it. So for each hidden stroke,
+       the highest dot it relies on is known : undoing dots below that one does not make the stroke visible again. */
+
+    // Growth of the tested shapes, in pixels.
+    static final double MARGIN = 1.0;
+
+    // Half the diagonal of a pixel : a pixel whose center is that far inside a shape is entirely within it.
+    private static final double PIXEL_REACH = Math.sqrt(0.5);
+
+    // Largest dot index which fits in a pixel of the raster (RGB, without alpha).
+    private static final int MAX_INDEX = 0xfffffe;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Occlusion pruner");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    static class Result {
+        // Dots found hidden (whole strokes), among the first dotCount dots of the doily.
+        final BitSet hidden;
+        final int dotCount;
+        final int hiddenCount;
+        // Drawing parameters the result holds for.
+        final int numberOfSectors;
+        final Point center;
+        /* The hidden strokes, as [start, end) ranges of dots, and the highest index of the dots hiding each of them.
+           A stroke is only known to be hidden while the dots up to that index are in the doily. */
+        final int[] strokeStarts, strokeEnds, lastOccluders;
+        final int strokeCount;
+
+        Result(BitSet hidden, int dotCount, int hiddenCount, int numberOfSectors, Point center, int[] strokeStarts,
+               int[] strokeEnds, int[] lastOccluders, int strokeCount){
+            this.hidden = hidden;
+            this.dotCount = dotCount;
+            this.hiddenCount = hiddenCount;
+            this.numberOfSectors = numberOfSectors;
+            this.center = center;
+            this.strokeStarts = strokeStarts;
+            this.strokeEnds = strokeEnds;
+            this.lastOccluders = lastOccluders;
+            this.strokeCount = strokeCount;
+        }
+    }
+
+    public static CompletableFuture<Result> pruneAsync(DotList dots, int numberOfSectors, Point center){
+        // Prunes a copy of dots (the caller may carry on modifying its own) on a low priority background thread.
+        DotList copy = new DotList(dots);
+        Point centerCopy = new Point(center);
+        return CompletableFuture.supplyAsync(() -> prune(copy, numberOfSectors, centerCopy), executor);
+    }
+
+    public static Result prune(DotList dots, int numberOfSectors, Point center){
+        /* Finds the hidden strokes of dots, as drawn by a Doily Panel with the given center. The top stroke is never
+           hidden, as the user may still be drawing it. It is drawn last anyway, so nothing could hide it. */
+        DoilyEvents.Prune event = new DoilyEvents.Prune();
+        event.begin();
+        int n = dots.size();
+        double angleStep = 2*Math.PI/ numberOfSectors;
+
+        // Centers of the dots and of their reflections (ovals are drawn from their top left corner), and their radii.
+        double[] x = new double[n], y = new double[n], mirroredX = new double[n], mirroredY = new double[n];
+        double[] r = new double[n];
+        DotList.Cursor d = dots.cursor();
+        while (d.next()){
+            int i = d.getIndex();
+            r[i] = d.getRadius() / 2.0;
+            x[i] = DotGeometry.computeX(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep, center.x) + r[i];
+            y[i] = DotGeometry.computeY(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep, center.y) + r[i];
+            mirroredX[i] = DotGeometry.computeMirroredX(d.getPolar(), d.getDistFromCenter(), angleStep, center.x) + r[i];
+            mirroredY[i] = DotGeometry.computeMirroredY(d.getPolar(), d.getDistFromCenter(), angleStep, center.y) + r[i];
+        }
+
+        Coverage coverage = new Coverage(x, y, r, n);
+        Coverage mirroredCoverage = new Coverage(mirroredX, mirroredY, r, n);
+
+        // Strokes, from the bottom up.
+        int[] strokes = new int[16];
+        int strokeTotal = 0;
+        for (int strokeStart = 0; strokeStart < n; strokeStart = dots.getStrokeEnd(strokeStart, n)){
+            if (strokeTotal == strokes.length){
+                strokes = Arrays.copyOf(strokes, strokeTotal * 2);
+            }
+            strokes[strokeTotal++] = strokeStart;
+        }
+
+        BitSet hidden = new BitSet(n);
+        int hiddenCount = 0, strokeCount = 0;
+        int[] strokeStarts = new int[16], strokeEnds = new int[16], lastOccluders = new int[16];
+        for (int k = strokeTotal - 1; k >= 0; k--){
+            int strokeStart = strokes[k];
+            int strokeEnd = (k + 1 < strokeTotal) ? strokes[k + 1] : n;
+
+            // Test the stroke's dots, and the segments joining them, against the strokes above it.
+            boolean strokeHidden = k < strokeTotal - 1;
+            int lastOccluder = -1;
+            for (int i = strokeStart; i < strokeEnd && strokeHidden; i++){
+                int from = (i > strokeStart) ? i - 1 : i;
+                int occluder = coverage.getLastOccluder(from, i);
+                int mirroredOccluder = (occluder < 0) ? -1 : mirroredCoverage.getLastOccluder(from, i);
+                strokeHidden = mirroredOccluder >= 0;
+                lastOccluder = Math.max(lastOccluder, Math.max(occluder, mirroredOccluder));
+            }
+
+            if (strokeHidden){
+                hidden.set(strokeStart, strokeEnd);
+                hiddenCount += strokeEnd - strokeStart;
+                if (strokeCount == strokeStarts.length){
+                    strokeStarts = Arrays.copyOf(strokeStarts, strokeCount * 2);
+                    strokeEnds = Arrays.copyOf(strokeEnds, strokeCount * 2);
+                    lastOccluders = Arrays.copyOf(lastOccluders, strokeCount * 2);
+                }
+                strokeStarts[strokeCount] = strokeStart;
+                strokeEnds[strokeCount] = strokeEnd;
+                lastOccluders[strokeCount] = lastOccluder;
+                strokeCount++;
+            } else if ((dots.getColor(strokeStart) >>> 24) == 255 && strokeEnd - 1 <= MAX_INDEX){
+                // A hidden stroke adds nothing to the coverage, and translucent strokes do not cover anything.
+                for (int i = strokeStart; i < strokeEnd; i++){
+                    int from = (i > strokeStart) ? i - 1 : i;
+                    coverage.add(from, i);
+                    mirroredCoverage.add(from, i);
+                }
+            }
+        }
+        coverage.dispose();
+        mirroredCoverage.dispose();
+        event.dots = n;
+        event.sectors = numberOfSectors;
+        event.strokesHidden = strokeCount;
+        event.dotsHidden = hiddenCount;
+        event.commit();
+        return new Result(hidden, n, hiddenCount, numberOfSectors, center, strokeStarts, strokeEnds, lastOccluders,
+                strokeCount);
+    }
+
+    private static class Coverage {
+        /* Raster over the bounds of a set of dots. Each pixel holds 0 if it is not covered, or the index (plus one) of
+           the lowest dot added so far whose shape (the dot, or the segment ending at it) entirely covers the pixel. */
+        private final double[] x, y, r;
+        private final int left, top, width, height;
+        private final BufferedImage raster;
+        private final int[] pixels;
+        private final Graphics2D g2d;
+        private final Ellipse2D.Double oval = new Ellipse2D.Double();
+        private final Line2D.Double line = new Line2D.Double();
+
+        Coverage(double[] x, double[] y, double[] r, int n){
+            this.x = x;
+            this.y = y;
+            this.r = r;
+            double minX = 0, minY = 0, maxX = 1, maxY = 1;
+            for (int i = 0; i < n; i++){
+                minX = (i == 0) ? x[i] - r[i] : Math.min(minX, x[i] - r[i]);
+                minY = (i == 0) ? y[i] - r[i] : Math.min(minY, y[i] - r[i]);
+                maxX = (i == 0) ? x[i] + r[i] : Math.max(maxX, x[i] + r[i]);
+                maxY = (i == 0) ? y[i] + r[i] : Math.max(maxY, y[i] + r[i]);
+            }
+            left = (int) Math.floor(minX) - 1;
+            top = (int) Math.floor(minY) - 1;
+            width = (int) Math.ceil(maxX) + 2 - left;
+            height = (int) Math.ceil(maxY) + 2 - top;
+            raster = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) raster.getRaster().getDataBuffer()).getData();
+            g2d = raster.createGraphics();
+            g2d.translate(-left, -top);
+        }
+
+        void add(int from, int to){
+            // Draws the dot to (or the segment from dot from to dot to), shrunk so only the pixels it entirely covers are set.
+            double shrunk = r[to] - PIXEL_REACH;
+            if (shrunk <= 0){
+                return;
+            }
+            g2d.setColor(new Color(to + 1));
+            if (from == to){
+                oval.setFrame(x[to] - shrunk, y[to] - shrunk, 2 * shrunk, 2 * shrunk);
+                g2d.fill(oval);
+            } else {
+                g2d.setStroke(new BasicStroke((float) (2 * shrunk), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                line.setLine(x[from], y[from], x[to], y[to]);
+                g2d.draw(line);
+            }
+        }
+
+        int getLastOccluder(int from, int to){
+            /* Tests whether the dot to (or the segment from dot from to dot to), grown by MARGIN, is covered.
+               Returns the highest dot index the covering relies on, or -1 if it is not entirely covered. */
+            double reach = r[to] + MARGIN + PIXEL_REACH;
+            int firstColumn = (int) Math.floor(Math.min(x[from], x[to]) - reach) - left;
+            int lastColumn = (int) Math.ceil(Math.max(x[from], x[to]) + reach) - left;
+            int firstRow = (int) Math.floor(Math.min(y[from], y[to]) - reach) - top;
+            int lastRow = (int) Math.ceil(Math.max(y[from], y[to]) + reach) - top;
+            int lastOccluder = -1;
+            for (int row = firstRow; row <= lastRow; row++){
+                for (int column = firstColumn; column <= lastColumn; column++){
+                    // Pixels whose square may reach the shape must all be covered.
+                    double pixelX = left + column + 0.5, pixelY = top + row + 0.5;
+                    if (distanceToSegment(pixelX, pixelY, x[from], y[from], x[to], y[to]) > reach){
+                        continue;
+                    }
+                    if (column < 0 || row < 0 || column >= width || row >= height){
+                        return -1;
+                    }
+                    int occluder = (pixels[row * width + column] & 0xffffff) - 1;
+                    if (occluder < 0){
+                        return -1;
+                    }
+                    lastOccluder = Math.max(lastOccluder, occluder);
+                }
+            }
+            return lastOccluder;
+        }
+
+        void dispose(){
+            g2d.dispose();
+        }
+    }
+
+    private static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by){
+        double dx = bx - ax, dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = (lengthSquared == 0) ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+}
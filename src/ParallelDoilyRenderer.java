@@ -0,0 +1,123 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ParallelDoilyRenderer {
+    /* Export engine rendering doilies at any resolution (e.g. 8192 x 8192 for print) using every core.
+       The output is split into horizontal bands, which are rendered in parallel on a ForkJoinPool. The strokes are
+       first sorted into the bands they cross (see DoilyRenderer.indexBands()), then each band is drawn by the
+       DoilyRenderer into its own small image, going through its own strokes only, and copied into its rows of the
+       output image. So the work grows with the number of dots, not with the number of dots times the number of bands. */
+
+    private static final int BAND_HEIGHT = 128;
+
+    private final ForkJoinPool pool;
+
+    public ParallelDoilyRenderer(){
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelDoilyRenderer(ForkJoinPool pool){
+        this.pool = pool;
+    }
+
+    public Result render(DoilySnapshot doily, int width){
+        return render(doily, width, true);
+    }
+
+    public Result render(DoilySnapshot doily, int width, boolean antialiasing){
+        // Renders the doily at the given width. The height is chosen to keep the doily's aspect ratio.
+        long start = System.nanoTime();
+
+        int height = DoilyRenderer.getHeightForWidth(doily, width);
+        DoilyRenderer renderer = new DoilyRenderer(doily, width, height);
+        renderer.setAntialiasing(antialiasing);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        LongAdder ovalsDrawn = new LongAdder();
+        DoilyRenderer.Bands bands = renderer.indexBands(BAND_HEIGHT);
+        pool.invoke(new BandTask(renderer, bands, image, ovalsDrawn, 0, bands.getBandCount()));
+
+        return new Result(image, doily.getDots().size(), ovalsDrawn.sum(), System.nanoTime() - start, pool.getParallelism());
+    }
+
+    static class BandTask extends RecursiveAction {
+        // Renders bands [firstBand, lastBand) of the output, splitting the range in half until a single band is left.
+        private final DoilyRenderer renderer;
+        private final DoilyRenderer.Bands bands;
+        private final BufferedImage image;
+        private final LongAdder ovalsDrawn;
+        private final int firstBand, lastBand;
+
+        BandTask(DoilyRenderer renderer, DoilyRenderer.Bands bands, BufferedImage image, LongAdder ovalsDrawn, int firstBand, int lastBand){
+            this.renderer = renderer;
+            this.bands = bands;
+            this.image = image;
+            this.ovalsDrawn = ovalsDrawn;
+            this.firstBand = firstBand;
+            this.lastBand = lastBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastBand - firstBand > 1){
+                int middle = (firstBand + lastBand) >>> 1;
+                invokeAll(new BandTask(renderer, bands, image, ovalsDrawn, firstBand, middle),
+                          new BandTask(renderer, bands, image, ovalsDrawn, middle, lastBand));
+                return;
+            }
+
+            int y = firstBand * BAND_HEIGHT;
+            int bandHeight = Math.min(BAND_HEIGHT, image.getHeight() - y);
+            BufferedImage band = new BufferedImage(image.getWidth(), bandHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = band.createGraphics();
+            ovalsDrawn.add(renderer.render(g2d, bands, firstBand));
+            g2d.dispose();
+
+            // Bands do not overlap, so they can be copied into the output concurrently.
+            image.getRaster().setDataElements(0, y, band.getRaster());
+        }
+    }
+
+    public static class Result {
+        // A rendered image, along with how long it took, so render throughput can be measured.
+        private final BufferedImage image;
+        private final int dotCount;
+        private final long ovalsDrawn;
+        private final long elapsedNanos;
+        private final int parallelism;
+
+        Result(BufferedImage image, int dotCount, long ovalsDrawn, long elapsedNanos, int parallelism){
+            this.image = image;
+            this.dotCount = dotCount;
+            this.ovalsDrawn = ovalsDrawn;
+            this.elapsedNanos = elapsedNanos;
+            this.parallelism = parallelism;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getDotsPerSecond(){
+            return dotCount / (elapsedNanos / 1e9);
+        }
+
+        public double getMegapixelsPerSecond(){
+            return (double) image.getWidth() * image.getHeight() / 1e6 / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Rendered %d dots (%d ovals) at %dx%d in %.1f ms on %d threads : %.0f dots/s, %.1f Mpx/s",
+                    dotCount, ovalsDrawn, image.getWidth(), image.getHeight(), elapsedNanos / 1e6, parallelism,
+                    getDotsPerSecond(), getMegapixelsPerSecond());
+        }
+    }
+}
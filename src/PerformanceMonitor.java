@@ -0,0 +1,146 @@
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+public class PerformanceMonitor {
+    /* Keeps track of where the Doily Panel spends its time, to diagnose lag while drawing.
+       The panel records how long each of its hot paths takes (see Operation) into a LatencyHistogram per path, and
+       counts the work done : dots drawn onto its buffer (once per sector and reflection), dots added, eraser dots, and
+       dots tested and erased by the eraser. The same operations are also recorded as JDK Flight Recorder events (see
+       DoilyEvents).
+
+       The figures can be shown over the panel (see paintOverlay()), or taken as text with getReport().
+       Not thread safe : the panel records everything on the EDT. */
+
+    public enum Operation {
+        PAINT("paint"),
+        DRAW_DOTS("drawDots"),
+        ERASE("erase"),
+        ADD_DOTS("addDots"),
+        PANEL_IMAGE("panelImage");
+
+        private final String label;
+
+        Operation(String label){
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 180);
+    private static final int OVERLAY_MARGIN = 6;
+
+    private final EnumMap<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+    private long lastPaintNanos = 0;
+    private long dotsDrawn = 0, dotsAdded = 0, eraserDots = 0, eraseCandidatesTested = 0, dotsErased = 0;
+
+    public PerformanceMonitor(){
+        for (Operation operation : Operation.values()){
+            histograms.put(operation, new LatencyHistogram());
+        }
+    }
+
+    public void record(Operation operation, long nanos){
+        histograms.get(operation).record(nanos);
+        if (operation == Operation.PAINT){
+            lastPaintNanos = nanos;
+        }
+    }
+
+    public void countDotsDrawn(long count){
+        dotsDrawn += count;
+    }
+
+    public void countDotsAdded(long count){
+        dotsAdded += count;
+    }
+
+    public void countEraserDots(long count){
+        eraserDots += count;
+    }
+
+    public void countErase(long candidatesTested, long erased){
+        eraseCandidatesTested += candidatesTested;
+        dotsErased += erased;
+    }
+
+    public void reset(){
+        for (LatencyHistogram histogram : histograms.values()){
+            histogram.reset();
+        }
+        lastPaintNanos = 0;
+        dotsDrawn = dotsAdded = eraserDots = eraseCandidatesTested = dotsErased = 0;
+    }
+
+    public LatencyHistogram getHistogram(Operation operation){
+        return histograms.get(operation);
+    }
+
+    private List<String> getLines(int dots, int sectors, int hiddenDots){
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("frame %7.2f ms   %d dots, %d sectors, %d hidden", lastPaintNanos / 1e6, dots, sectors, hiddenDots));
+        lines.add(String.format("%-11s %6s %8s %8s %8s %8s", "", "count", "p50", "p95", "p99", "max ms"));
+        for (Operation operation : Operation.values()){
+            LatencyHistogram histogram = histograms.get(operation);
+            lines.add(String.format("%-11s %6d %8.2f %8.2f %8.2f %8.2f", operation.getLabel(), histogram.getCount(),
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(95) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        lines.add(String.format("drawn %d, added %d, eraser %d, erase tested %d, erased %d", dotsDrawn, dotsAdded, eraserDots,
+                eraseCandidatesTested, dotsErased));
+        return lines;
+    }
+
+    public String getReport(int dots, int sectors, int hiddenDots){
+        return String.join(System.lineSeparator(), getLines(dots, sectors, hiddenDots));
+    }
+
+    public Rectangle paintOverlay(Graphics2D g2d, int dots, int sectors, int hiddenDots){
+        /* Draws the last frame time, the percentiles of each operation and the counters in the top left corner.
+           Returns the area covered. */
+        List<String> lines = getLines(dots, sectors, hiddenDots);
+        Font oldFont = g2d.getFont();
+        g2d.setFont(OVERLAY_FONT);
+        FontMetrics metrics = g2d.getFontMetrics();
+        int width = 0;
+        for (String line : lines){
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        Rectangle bounds = new Rectangle(0, 0, width + 2 * OVERLAY_MARGIN, lines.size() * metrics.getHeight() + 2 * OVERLAY_MARGIN);
+        g2d.setColor(OVERLAY_BACKGROUND);
+        g2d.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+        g2d.setColor(Color.white);
+        int y = OVERLAY_MARGIN + metrics.getAscent();
+        for (String line : lines){
+            g2d.drawString(line, OVERLAY_MARGIN, y);
+            y += metrics.getHeight();
+        }
+        g2d.setFont(oldFont);
+        return bounds;
+    }
+
+    public long getDotsDrawn() {
+        return dotsDrawn;
+    }
+
+    public long getDotsAdded() {
+        return dotsAdded;
+    }
+
+    public long getEraserDots() {
+        return eraserDots;
+    }
+
+    public long getEraseCandidatesTested() {
+        return eraseCandidatesTested;
+    }
+
+    public long getDotsErased() {
+        return dotsErased;
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class PolarGrid {
+    /* Spatial index over the dots of a DotList, used to find the dots touched by the eraser.
+       Dots are bucketed by their polar coordinates : the distance from the center is split into bands of
+       BAND_WIDTH pixels, and the polar (a fraction of the sector, between 0 and 1) into ANGLE_BUCKETS buckets.
+       An eraser dot only needs to test the dots stored in the cells close to it, rather than every dot of the doily.
+
+       The index stores positions in the DotList. It stays valid while dots are only pushed (new dots are added by
+       update()), but has to be invalidated whenever existing dots are removed or reordered (undo, clear, erase). */
+
+    private static final int BAND_WIDTH = 16;
+    private static final int ANGLE_BUCKETS = 64;
+    private static final int INITIAL_CELL_CAPACITY = 8;
+
+    // cells[band * ANGLE_BUCKETS + bucket] holds the indices of the dots in that cell. Only the first cellSizes[cell] are used.
+    private int[][] cells;
+    private int[] cellSizes;
+    private int bandCount;
+
+    // Number of dots (from the bottom of the DotList) currently in the index.
+    private int indexedCount;
+    private boolean valid;
+
+    public PolarGrid(){
+        bandCount = 0;
+        cells = new int[0][];
+        cellSizes = new int[0];
+        valid = false;
+    }
+
+    public void invalidate(){
+        // The index will be rebuilt from scratch on the next update().
+        valid = false;
+    }
+
+    public void update(DotList dots){
+        // Brings the index up to date with dots, either by indexing the newly pushed dots or by rebuilding it entirely.
+        if (!valid || indexedCount > dots.size()){
+            Arrays.fill(cellSizes, 0);
+            indexedCount = 0;
+            valid = true;
+        }
+        DotList.Cursor cursor = dots.cursor(indexedCount, dots.size());
+        while (cursor.next()){
+            add(cursor.getIndex(), cursor.getPolar(), cursor.getDistFromCenter());
+        }
+        indexedCount = dots.size();
+    }
+
+    public int markOverlapping(DotList dots, double polar, int distFromCenter, int radius, BitSet marked){
+        /* Sets the bit of every indexed dot overlapping with the given (eraser) dot, using the same test as
+           Dot.overlapping(). Returns the number of dots that had to be tested. */
+        int tested = 0;
+        int firstBand = Math.max(0, (distFromCenter - radius) / BAND_WIDTH);
+        int lastBand = Math.min(bandCount - 1, (distFromCenter + radius) / BAND_WIDTH);
+
+        for (int band = firstBand; band <= lastBand; band++){
+            /* Two dots at distances d1 and d2 which are an angle a apart are at least 2 * sqrt(d1 * d2) * sin(a / 2) apart.
+               This bounds how far (in polar) an overlapping dot can be from the eraser dot within this band. */
+            int minDist = band * BAND_WIDTH;
+            double reach = 2 * Math.sqrt((double) distFromCenter * minDist);
+            int firstBucket = 0;
+            int lastBucket = ANGLE_BUCKETS - 1;
+            if (reach > radius){
+                double maxPolarDiff = 2 * Math.asin(radius / reach);
+                firstBucket = Math.max(firstBucket, bucketOf(polar - maxPolarDiff));
+                lastBucket = Math.min(lastBucket, bucketOf(polar + maxPolarDiff));
+            }
+
+            for (int bucket = firstBucket; bucket <= lastBucket; bucket++){
+                int cell = band * ANGLE_BUCKETS + bucket;
+                int[] indices = cells[cell];
+                for (int i = 0; i < cellSizes[cell]; i++){
+                    int index = indices[i];
+                    if (marked.get(index)){
+                        continue;
+                    }
+                    tested++;
+                    if (Dot.overlapping(polar, distFromCenter, radius, dots.getPolar(index), dots.getDistFromCenter(index))){
+                        marked.set(index);
+                    }
+                }
+            }
+        }
+        return tested;
+    }
+
+    private void add(int index, double polar, int distFromCenter){
+        int band = Math.max(0, distFromCenter) / BAND_WIDTH;
+        if (band >= bandCount){
+            addBands(band + 1);
+        }
+        int cell = band * ANGLE_BUCKETS + bucketOf(polar);
+        if (cells[cell] == null){
+            cells[cell] = new int[INITIAL_CELL_CAPACITY];
+        } else if (cellSizes[cell] == cells[cell].length){
+            cells[cell] = Arrays.copyOf(cells[cell], cells[cell].length * 2);
+        }
+        cells[cell][cellSizes[cell]++] = index;
+    }
+
+    private void addBands(int newBandCount){
+        // Bands are created on demand, as dots further away from the center get indexed.
+        cells = Arrays.copyOf(cells, newBandCount * ANGLE_BUCKETS);
+        cellSizes = Arrays.copyOf(cellSizes, newBandCount * ANGLE_BUCKETS);
+        bandCount = newBandCount;
+    }
+
+    private int bucketOf(double polar){
+        int bucket = (int) Math.floor(polar * ANGLE_BUCKETS);
+        return Math.max(0, Math.min(ANGLE_BUCKETS - 1, bucket));
+    }
+}
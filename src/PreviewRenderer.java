@@ -0,0 +1,414 @@
+import java.awt.*;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+public class PreviewRenderer {
+    /* Level of detail renderer for small previews of doilies, such as the gallery thumbnails.
+       The DoilyRenderer draws every dot as a shape, however small it ends up : scaled down to a thumbnail, most dots
+       of a large doily are a fraction of a pixel or a few pixels wide, and most of them are covered by later dots
+       anyway. Here, dots are not drawn as shapes but blended straight into the pixels, at a level of detail depending
+       on their diameter at the output scale :
+
+       - below detailThreshold pixels, each dot is a point sample : the pixel under the dot's center is blended with
+         the dot's colour, weighted by the part of the pixel the dot covers. Samples of a stroke falling on the same
+         pixel are merged into a single blend, and samples too faint to change a pixel are skipped.
+       - larger dots (and the lines of strokes) are "splatted" : each pixel they touch is blended, weighted by an
+         estimate of the part of it covered, from the distance between the pixel's center and the dot's edge.
+
+       Dots are blended front to back, from the last dot of the last sector down : each pixel keeps how much of what
+       is below still shows through, and once a pixel is (almost) entirely covered nothing more is blended into it.
+       On a large doily, most dots only fall on covered pixels, and finding them has to be cheaper than rotating them
+       into every sector. So the image is divided into bins by angle and distance from the center, keeping count of
+       their pixels not yet covered, and every stroke knows which angles and distances it spans within the first
+       sector : from one sector to the next, only the angles shift by a whole number of bins. A stroke is skipped
+       when, at each of its angles, everything is covered up to its furthest distance from the center.
+
+       Strokes are blended as a whole, so a translucent stroke is as opaque where its dots overlap as anywhere else
+       (as when the Doily Panel draws it as a line). The output is always a new opaque TYPE_INT_ARGB image. */
+
+    // Diameter (in output pixels) below which dots are drawn as point samples.
+    public static final double DEFAULT_DETAIL_THRESHOLD = 1.5;
+
+    // Samples changing a pixel by less than this opacity are skipped, and pixels showing less than this are covered.
+    private static final float MIN_ALPHA = 1f / 512;
+
+    // Approximate width (in output pixels) of the angle bins, at the edge of the image.
+    private static final double BIN_WIDTH = 4;
+
+    // Distance (in output pixels) beyond a dot's edge at which the center of a pixel it changes may be.
+    private static final double PIXEL_REACH = 0.75;
+
+    private final DoilySnapshot doily;
+    private final int width, height;
+    private final double scale;
+    private double detailThreshold = DEFAULT_DETAIL_THRESHOLD;
+
+    // Colour blended into each pixel so far (premultiplied), and how much of what is below still shows through.
+    private float[] red, green, blue, transparency;
+
+    /* Number of pixels not yet covered in each bin (by angle, then distance in whole pixels), the bin of each pixel
+       (-1 for pixels no dot can reach), and for each angle the distance within which every pixel is covered.
+       Strokes passing by the center span every angle, so the smallest of those distances is kept as well, with the
+       number of angles at it. */
+    private int distances;
+    private int[] openPixels, pixelBins, coveredDistances;
+    private int minCoveredDistance, anglesAtMinCoveredDistance;
+
+    // Coverage of the stroke being blended, and the pixels it touches.
+    private float[] coverage;
+    private int[] touched;
+    private int touchedCount;
+
+    // Statistics of the last render.
+    private long samplesDrawn, samplesMerged, dotsSplatted, dotsSkipped, dotsHidden;
+
+    public PreviewRenderer(DoilySnapshot doily, int width, int height){
+        this.doily = doily;
+        this.width = width;
+        this.height = height;
+        this.scale = (double) width / doily.getCanvasWidth();
+    }
+
+    public BufferedImage render(){
+        samplesDrawn = samplesMerged = dotsSplatted = dotsSkipped = dotsHidden = 0;
+        int pixelCount = width * height;
+        red = new float[pixelCount];
+        green = new float[pixelCount];
+        blue = new float[pixelCount];
+        transparency = new float[pixelCount];
+        coverage = new float[pixelCount];
+        touched = new int[64];
+        touchedCount = 0;
+
+        int numberOfSectors = doily.getNumberOfSectors();
+        double angleStep = 2*Math.PI/ numberOfSectors;
+        double offset = (numberOfSectors % 2 == 1) ? - angleStep/2 : 0;
+        double centerX = width / 2.0, centerY = height / 2.0;
+        boolean reflect = doily.isReflectDrawnPoints();
+        DotList dots = doily.getDots();
+        int n = dots.size();
+        int binsPerSector = (int) Math.max(1, Math.ceil(Math.PI * Math.max(width, height) / BIN_WIDTH / numberOfSectors));
+        int angles = binsPerSector * numberOfSectors;
+        double binAngle = 2 * Math.PI / angles;
+
+        // Centers of the dots (and of their reflections) within the first sector, at the output scale (see DoilyRenderer).
+        float[][] xs = new float[2][], ys = new float[2][];
+        xs[0] = new float[n];
+        ys[0] = new float[n];
+        xs[1] = reflect ? new float[n] : null;
+        ys[1] = reflect ? new float[n] : null;
+        DotList.Cursor d = dots.cursor();
+        while (d.next()){
+            int i = d.getIndex();
+            xs[0][i] = (float) (DoilyRenderer.getDotCenterX(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+            ys[0][i] = (float) (DoilyRenderer.getDotCenterY(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+            if (reflect){
+                xs[1][i] = (float) (DoilyRenderer.getMirroredCenterX(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+                ys[1][i] = (float) (DoilyRenderer.getMirroredCenterY(d.getPolar(), d.getDistFromCenter(), d.getRadius(), angleStep) * scale);
+            }
+        }
+
+        /* Start of the stroke each dot belongs to. For each stroke (at its start) and pass (the dots, then their
+           reflections) : the first and last angle bins it spans within the first sector, and the furthest distance
+           from the center it may change a pixel at, in whole pixels. */
+        int[] strokeStarts = new int[n];
+        int[][] firstBins = new int[2][n], lastBins = new int[2][n], strokeDistances = new int[2][n];
+        int maxDistance = 0;
+        for (int start = 0, end; start < n; start = end){
+            end = dots.getStrokeEnd(start, n);
+            for (int i = start; i < end; i++){
+                strokeStarts[i] = start;
+            }
+            double reach = dots.getRadius(start) * scale / 2 + PIXEL_REACH;
+            for (int pass = 0; pass < (reflect ? 2 : 1); pass++){
+                double minAngle = Double.MAX_VALUE, maxAngle = -Double.MAX_VALUE, previous = 0, distance = 0;
+                boolean aroundCenter = false;
+                for (int i = start; i < end; i++){
+                    double x = xs[pass][i], y = ys[pass][i];
+                    double dotDistance = Math.hypot(x, y);
+                    distance = Math.max(distance, dotDistance);
+                    // Angles are kept within half a turn of the previous dot's, so a stroke can cross the negative x axis.
+                    double angle = Math.atan2(y, x);
+                    if (i > start){
+                        angle = previous + Math.IEEEremainder(angle - previous, 2 * Math.PI);
+                        aroundCenter |= getDistanceFromCenter(xs[pass][i - 1], ys[pass][i - 1], x, y) <= reach;
+                    }
+                    previous = angle;
+                    if (dotDistance <= reach){
+                        aroundCenter = true;
+                        continue;
+                    }
+                    // At least the angle between the dot's center and the edge of its reach (the tangent is cheaper than asin).
+                    double spread = reach / Math.sqrt(dotDistance * dotDistance - reach * reach);
+                    minAngle = Math.min(minAngle, angle - spread);
+                    maxAngle = Math.max(maxAngle, angle + spread);
+                }
+                if (aroundCenter || maxAngle - minAngle >= 2 * Math.PI){
+                    firstBins[pass][start] = 0;
+                    lastBins[pass][start] = angles - 1;
+                } else {
+                    firstBins[pass][start] = (int) Math.floor(minAngle / binAngle);
+                    lastBins[pass][start] = (int) Math.floor(maxAngle / binAngle);
+                }
+                strokeDistances[pass][start] = (int) (distance + reach);
+                maxDistance = Math.max(maxDistance, strokeDistances[pass][start]);
+            }
+        }
+
+        // Pixels out of reach of every dot (such as the corners of the image) are covered from the start.
+        distances = maxDistance + 2;
+        openPixels = new int[angles * distances];
+        pixelBins = new int[pixelCount];
+        for (int row = 0; row < height; row++){
+            for (int column = 0; column < width; column++){
+                int pixel = row * width + column;
+                double x = column + 0.5 - centerX, y = row + 0.5 - centerY;
+                int distance = (int) Math.hypot(x, y);
+                if (distance > maxDistance){
+                    pixelBins[pixel] = -1;
+                    continue;
+                }
+                int angle = Math.floorMod((int) Math.floor((Math.atan2(y, x) - offset) / binAngle), angles);
+                pixelBins[pixel] = angle * distances + distance;
+                openPixels[pixelBins[pixel]]++;
+                transparency[pixel] = 1;
+            }
+        }
+        coveredDistances = new int[angles];
+        for (int angle = 0; angle < angles; angle++){
+            // The last distance stays open, as a sentinel.
+            openPixels[angle * distances + distances - 1] = 1;
+        }
+        minCoveredDistance = 0;
+        anglesAtMinCoveredDistance = angles;
+        for (int angle = 0; angle < angles; angle++){
+            updateCoveredDistance(angle);
+        }
+
+        // The DoilyRenderer draws sector by sector, dot by dot, each dot's reflection over the dot : here, the other way round.
+        double[] x = new double[16], y = new double[16];
+        for (int k = numberOfSectors - 1; k >= 0; k--){
+            double cos = Math.cos(offset + k * angleStep), sin = Math.sin(offset + k * angleStep);
+            for (int end = n, start; end > 0; end = start){
+                start = strokeStarts[end - 1];
+                int length = end - start;
+                int argb = dots.getColor(start);
+                double alpha = (argb >>> 24) / 255.0;
+                double diameter = dots.getRadius(start) * scale;
+                for (int pass = reflect ? 1 : 0; pass >= 0; pass--){
+                    if (isCovered(firstBins[pass][start] + k * binsPerSector, lastBins[pass][start] + k * binsPerSector,
+                            strokeDistances[pass][start])){
+                        dotsHidden += length;
+                        continue;
+                    }
+                    if (x.length < length){
+                        x = new double[Math.max(length, 2 * x.length)];
+                        y = new double[x.length];
+                    }
+                    for (int i = 0; i < length; i++){
+                        // Rotate the dot's center into sector k.
+                        x[i] = centerX + xs[pass][start + i] * cos - ys[pass][start + i] * sin;
+                        y[i] = centerY + xs[pass][start + i] * sin + ys[pass][start + i] * cos;
+                    }
+
+                    if (diameter < detailThreshold){
+                        // Each dot of the stroke is a sample, weighted by the area of the dot (at most the whole pixel).
+                        float area = (float) Math.min(1, Math.PI * diameter * diameter / 4);
+                        if (area * alpha < MIN_ALPHA){
+                            dotsSkipped += length;
+                            continue;
+                        }
+                        for (int i = 0; i < length; i++){
+                            int column = (int) Math.floor(x[i]), row = (int) Math.floor(y[i]);
+                            if (column < 0 || row < 0 || column >= width || row >= height){
+                                dotsSkipped++;
+                                continue;
+                            }
+                            int pixel = row * width + column;
+                            if (coverage[pixel] > 0){
+                                samplesMerged++;
+                            } else {
+                                touch(pixel);
+                                samplesDrawn++;
+                            }
+                            coverage[pixel] = Math.min(1, coverage[pixel] + area);
+                        }
+                    } else {
+                        // A single dot is a line from its center to itself.
+                        splat(x[0], y[0], x[0], y[0], diameter / 2);
+                        for (int i = 1; i < length; i++){
+                            splat(x[i - 1], y[i - 1], x[i], y[i], diameter / 2);
+                        }
+                        dotsSplatted += length;
+                    }
+                    blendTouched(argb);
+                }
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixelCount; i++){
+            // Whatever still shows through is the black background.
+            pixels[i] = 0xff000000 | (Math.min(255, Math.round(red[i])) << 16) | (Math.min(255, Math.round(green[i])) << 8)
+                    | Math.min(255, Math.round(blue[i]));
+        }
+        red = green = blue = transparency = coverage = null;
+        openPixels = pixelBins = coveredDistances = null;
+
+        if (doily.isDrawSectorLines()){
+            // Same as the Doily Panel's sector lines, scaled to the output.
+            Graphics2D g2d = image.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            double lineLength = width/2.0 * 1.4;
+            g2d.setColor(Color.white);
+            g2d.setStroke(new BasicStroke((float) (DoilyRenderer.SECTOR_LINE_WIDTH * scale)));
+            for (int k = 0; k < numberOfSectors; k++){
+                g2d.draw(new Line2D.Double(centerX, centerY, centerX + Math.cos(offset + k * angleStep) * lineLength,
+                        centerY + Math.sin(offset + k * angleStep) * lineLength));
+            }
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    private static double getDistanceFromCenter(double x0, double y0, double x1, double y1){
+        // Distance between the center and the closest point of the line from (x0, y0) to (x1, y1).
+        double dx = x1 - x0, dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = (lengthSquared > 0) ? Math.max(0, Math.min(1, -(x0 * dx + y0 * dy) / lengthSquared)) : 0;
+        return Math.hypot(x0 + t * dx, y0 + t * dy);
+    }
+
+    private boolean isCovered(int firstBin, int lastBin, int distance){
+        // Whether every pixel of the given angle bins (which may wrap around) is covered up to the given distance.
+        int angles = coveredDistances.length;
+        if (lastBin - firstBin + 1 >= angles){
+            return minCoveredDistance > distance;
+        }
+        int bin = Math.floorMod(firstBin, angles);
+        for (int count = lastBin - firstBin; count >= 0; count--){
+            if (coveredDistances[bin] <= distance){
+                return false;
+            }
+            if (++bin == angles){
+                bin = 0;
+            }
+        }
+        return true;
+    }
+
+    private void updateCoveredDistance(int angle){
+        // Called when a bin of the given angle is entirely covered.
+        int distance = coveredDistances[angle];
+        if (openPixels[angle * distances + distance] > 0){
+            return;
+        }
+        while (openPixels[angle * distances + distance] == 0){
+            distance++;
+        }
+        if (coveredDistances[angle] == minCoveredDistance){
+            anglesAtMinCoveredDistance--;
+        }
+        coveredDistances[angle] = distance;
+        if (anglesAtMinCoveredDistance == 0){
+            minCoveredDistance = Integer.MAX_VALUE;
+            for (int covered : coveredDistances){
+                if (covered < minCoveredDistance){
+                    minCoveredDistance = covered;
+                    anglesAtMinCoveredDistance = 0;
+                }
+                if (covered == minCoveredDistance){
+                    anglesAtMinCoveredDistance++;
+                }
+            }
+        }
+    }
+
+    private void splat(double x0, double y0, double x1, double y1, double radius){
+        /* Adds the line of the given radius from (x0, y0) to (x1, y1) to the stroke's coverage. The part of a pixel
+           covered is estimated from the distance between the pixel's center and the line's edge, as antialiasing would. */
+        int firstColumn = Math.max(0, (int) Math.floor(Math.min(x0, x1) - radius - 0.5));
+        int lastColumn = Math.min(width - 1, (int) Math.floor(Math.max(x0, x1) + radius));
+        int firstRow = Math.max(0, (int) Math.floor(Math.min(y0, y1) - radius - 0.5));
+        int lastRow = Math.min(height - 1, (int) Math.floor(Math.max(y0, y1) + radius));
+        double dx = x1 - x0, dy = y1 - y0;
+        double lengthSquared = dx * dx + dy * dy;
+        for (int row = firstRow; row <= lastRow; row++){
+            double py = row + 0.5 - y0;
+            for (int column = firstColumn; column <= lastColumn; column++){
+                int pixel = row * width + column;
+                if (transparency[pixel] < MIN_ALPHA){
+                    continue;
+                }
+                double px = column + 0.5 - x0;
+                // Distance to the closest point of the line.
+                double t = (lengthSquared > 0) ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+                double ex = px - t * dx, ey = py - t * dy;
+                float covered = (float) Math.min(1, radius + 0.5 - Math.sqrt(ex * ex + ey * ey));
+                if (covered > coverage[pixel]){
+                    if (coverage[pixel] == 0){
+                        touch(pixel);
+                    }
+                    coverage[pixel] = covered;
+                }
+            }
+        }
+    }
+
+    private void touch(int pixel){
+        if (touchedCount == touched.length){
+            touched = Arrays.copyOf(touched, 2 * touched.length);
+        }
+        touched[touchedCount++] = pixel;
+    }
+
+    private void blendTouched(int argb){
+        // Blends colour argb under what is already in the pixels touched by the stroke, and resets its coverage.
+        float alpha = (argb >>> 24) / 255f;
+        float r = (argb >> 16) & 0xff, g = (argb >> 8) & 0xff, b = argb & 0xff;
+        for (int i = 0; i < touchedCount; i++){
+            int pixel = touched[i];
+            float opacity = coverage[pixel] * alpha;
+            coverage[pixel] = 0;
+            float shown = transparency[pixel];
+            if (shown < MIN_ALPHA || opacity < MIN_ALPHA){
+                continue;
+            }
+            red[pixel] += shown * opacity * r;
+            green[pixel] += shown * opacity * g;
+            blue[pixel] += shown * opacity * b;
+            transparency[pixel] = shown * (1 - opacity);
+            if (transparency[pixel] < MIN_ALPHA && --openPixels[pixelBins[pixel]] == 0){
+                updateCoveredDistance(pixelBins[pixel] / distances);
+            }
+        }
+        touchedCount = 0;
+    }
+
+    public void setDetailThreshold(double detailThreshold) {
+        this.detailThreshold = detailThreshold;
+    }
+
+    public long getSamplesDrawn() {
+        return samplesDrawn;
+    }
+
+    public long getSamplesMerged() {
+        return samplesMerged;
+    }
+
+    public long getDotsSplatted() {
+        return dotsSplatted;
+    }
+
+    public long getDotsSkipped() {
+        return dotsSkipped;
+    }
+
+    public long getDotsHidden() {
+        return dotsHidden;
+    }
+}
@@ -0,0 +1,104 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+public class RasterCheckpoints {
+    /* Copies of the Doily Panel's buffer, taken every INTERVAL dots, so undoing does not require redrawing every dot.
+       Each checkpoint remembers how many dots it holds and the history position (see DoilyHistory) it was taken at.
+       After an undo, the panel restores the most recent checkpoint still valid for the current dots, then only draws
+       the dots added after it.
+
+       A checkpoint is only valid if the dots it holds are still the bottom dots of the doily, i.e. if nothing but dot
+       additions happened between the checkpoint and the current history position, and if it was drawn with the current
+       drawing parameters (number of sectors, reflection and panel size). At most MAX_CHECKPOINTS are kept, and the
+       Doily Panel drops the oldest ones (see trim()) so they fit in what the undo history leaves of its memory limit. */
+
+    private static final int INTERVAL = 1000;
+    private static final int MAX_CHECKPOINTS = 8;
+
+    private static class Checkpoint {
+        BufferedImage image;
+        int dotCount;
+        long position;
+        String parameters;
+    }
+
+    // Most recent checkpoint first.
+    private final Deque<Checkpoint> checkpoints = new ArrayDeque<>();
+
+    public void capture(BufferedImage buffer, int dotCount, long position, String parameters){
+        // Takes a checkpoint of buffer if enough dots were added since the last one.
+        Checkpoint last = checkpoints.peekFirst();
+        if (last != null && last.parameters.equals(parameters) && last.position <= position && dotCount < last.dotCount + INTERVAL){
+            return;
+        }
+        if (dotCount < INTERVAL){
+            return;
+        }
+
+        // Checkpoints taken at a later position belong to operations which have been undone and replaced.
+        discardAfter(position);
+
+        Checkpoint checkpoint = new Checkpoint();
+        checkpoint.image = new BufferedImage(buffer.getWidth(), buffer.getHeight(), buffer.getType());
+        Graphics2D g2d = checkpoint.image.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(buffer, 0, 0, null);
+        g2d.dispose();
+        checkpoint.dotCount = dotCount;
+        checkpoint.position = position;
+        checkpoint.parameters = parameters;
+        checkpoints.addFirst(checkpoint);
+
+        if (checkpoints.size() > MAX_CHECKPOINTS){
+            checkpoints.pollLast();
+        }
+    }
+
+    public void trim(long memoryLimit){
+        // Drops the oldest checkpoints until they use at most memoryLimit bytes.
+        while (!checkpoints.isEmpty() && getMemoryUsage() > memoryLimit){
+            checkpoints.pollLast();
+        }
+    }
+
+    public long getMemoryUsage(){
+        long memoryUsage = 0;
+        for (Checkpoint checkpoint : checkpoints){
+            memoryUsage += 4L * checkpoint.image.getWidth() * checkpoint.image.getHeight();
+        }
+        return memoryUsage;
+    }
+
+    public int restore(BufferedImage buffer, long position, long lastChangePosition, String parameters){
+        /* Copies the most recent valid checkpoint onto buffer and returns the number of dots it holds.
+           Returns -1 (leaving buffer untouched) if there is no valid checkpoint. */
+        for (Checkpoint checkpoint : checkpoints){
+            if (checkpoint.position <= position && lastChangePosition <= checkpoint.position
+                    && checkpoint.parameters.equals(parameters)
+                    && checkpoint.image.getWidth() == buffer.getWidth() && checkpoint.image.getHeight() == buffer.getHeight()){
+                Graphics2D g2d = buffer.createGraphics();
+                g2d.setComposite(AlphaComposite.Src);
+                g2d.drawImage(checkpoint.image, 0, 0, null);
+                g2d.dispose();
+                return checkpoint.dotCount;
+            }
+        }
+        return -1;
+    }
+
+    public void discardAfter(long position){
+        Iterator<Checkpoint> it = checkpoints.iterator();
+        while (it.hasNext()){
+            if (it.next().position > position){
+                it.remove();
+            }
+        }
+    }
+
+    public void clear(){
+        checkpoints.clear();
+    }
+}
@@ -0,0 +1,97 @@
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RenderCache {
+    /* Buffers of the Doily Panel drawn with other drawing parameters (number of sectors, reflection, panel size...),
+       so switching back to them (e.g. scrubbing the number of sectors slider back and forth) does not redraw every
+       dot. When the parameters change, the panel hands its buffer over to the cache, then takes the buffer for the
+       new parameters back out of it if there is one. Buffers rendered in the background for the parameters the user
+       is likely to pick next are put here as well.
+
+       Each buffer remembers how many dots it holds. Those must still be the bottom dots of the doily : dots added
+       since are simply drawn on top when the buffer is taken, but the cache has to be cleared whenever dots are
+       changed in any other way (erased, undone...). The least recently used buffers are dropped once the cache holds
+       more than its memory limit. */
+
+    public static final long DEFAULT_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    static class Entry {
+        final BufferedImage image;
+        final int dotCount;
+
+        Entry(BufferedImage image, int dotCount){
+            this.image = image;
+            this.dotCount = dotCount;
+        }
+
+        long getMemoryUsage(){
+            return 4L * image.getWidth() * image.getHeight();
+        }
+    }
+
+    // By drawing parameters (see DoilyPanel.getRenderParameters()), least recently used first.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsage = 0;
+    private long memoryLimit;
+
+    public RenderCache(){
+        this(DEFAULT_MEMORY_LIMIT);
+    }
+
+    public RenderCache(long memoryLimit){
+        this.memoryLimit = memoryLimit;
+    }
+
+    public void put(String parameters, BufferedImage image, int dotCount){
+        // Keeps image, holding the first dotCount dots, for the given parameters. The caller must no longer draw on it.
+        Entry entry = new Entry(image, dotCount);
+        Entry replaced = entries.put(parameters, entry);
+        if (replaced != null){
+            memoryUsage -= replaced.getMemoryUsage();
+        }
+        memoryUsage += entry.getMemoryUsage();
+        trim();
+    }
+
+    public Entry take(String parameters){
+        // Removes and returns the buffer for the given parameters, or null if there is none.
+        Entry entry = entries.remove(parameters);
+        if (entry != null){
+            memoryUsage -= entry.getMemoryUsage();
+        }
+        return entry;
+    }
+
+    public boolean contains(String parameters){
+        return entries.containsKey(parameters);
+    }
+
+    public void clear(){
+        entries.clear();
+        memoryUsage = 0;
+    }
+
+    private void trim(){
+        // Drops the least recently used buffers until the memory limit is met.
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (memoryUsage > memoryLimit && it.hasNext()){
+            memoryUsage -= it.next().getValue().getMemoryUsage();
+            it.remove();
+        }
+    }
+
+    public int size(){
+        return entries.size();
+    }
+
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    public void setMemoryLimit(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        trim();
+    }
+}
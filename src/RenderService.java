@@ -0,0 +1,311 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RenderService {
+    /* Small embedded HTTP service rendering doilies to PNG, without any window. Run it with :
+
+           java -Djava.awt.headless=true -jar "Digital Doilies.jar" --serve [port]
+
+       POST /render?width=<pixels> with a doily definition (the text format of DoilyFile) as the body returns the
+       doily as a PNG, width pixels wide (the doily's canvas width by default). GET /stats returns the number of
+       requests served and their latency percentiles, as text. Bodies longer than MAX_BODY_LENGTH are refused (413),
+       and so are doilies of more than MAX_DOT_COUNT dots (400).
+
+       Each request is handled on its own virtual thread when the JVM has them (Java 21 and later, looked up by
+       reflection so the service still runs on older JVMs), otherwise on a pool of REQUEST_THREADS threads. Requests
+       mostly wait, for their body or for the client to read the PNG, which virtual threads make cheap.
+       The rendering itself is CPU bound : each doily is rendered and compressed strip by strip (see
+       StreamingPngExporter) on a ForkJoinPool of one thread per processor, and at most two renders per processor
+       run at a time, the other requests waiting their turn. So however many requests come in, the processors are
+       kept busy without thrashing, and memory holds a bounded number of strips.
+       Parsed doilies take memory too : at most four per processor are held at a time, from reading the body to the
+       end of the render. The other requests wait before their body is read, and are answered 503 if no room was
+       made within PERMIT_TIMEOUT. A body must then arrive within BODY_TIMEOUT (the HTTP server's
+       sun.net.httpserver.maxReqTime, unless set on the command line), so clients sending theirs slowly cannot keep
+       the others waiting for long.
+
+       The heap is sized from those limits : a doily of MAX_DOT_COUNT dots takes up to MAX_DOILY_MEMORY while it is
+       parsed and rendered, so the service needs about 4 * MAX_DOILY_MEMORY per processor on top of the strips, e.g.
+       java -Xmx1200m on a single processor. */
+
+    public static final int DEFAULT_PORT = 8740;
+    // Largest width (and height) rendered, so a single request cannot keep the processors busy for minutes.
+    public static final int MAX_WIDTH = 8192;
+    // Largest doily rendered, and longest request body read (a dot takes at most about 50 bytes).
+    public static final int MAX_DOT_COUNT = 1_000_000;
+    public static final long MAX_BODY_LENGTH = 64L << 20;
+    // Memory a doily of MAX_DOT_COUNT dots takes at most : its dots, the engine's copy of them and the renderer's index.
+    public static final long MAX_DOILY_MEMORY = 256L << 20;
+    // Seconds a request may wait for room to parse its doily, and to send its body in.
+    public static final int PERMIT_TIMEOUT = 30;
+    public static final int BODY_TIMEOUT = 30;
+
+    private static final int REQUEST_THREADS = 64;
+
+    static {
+        // Read by the HTTP server when the first one is created, so it has to be set before.
+        if (System.getProperty("sun.net.httpserver.maxReqTime") == null){
+            System.setProperty("sun.net.httpserver.maxReqTime", Integer.toString(BODY_TIMEOUT));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ForkJoinPool renderPool;
+    private final StreamingPngExporter exporter;
+    private final Semaphore renderPermits;
+    private final Semaphore doilyPermits;
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    public RenderService(int port) throws IOException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        renderPool = new ForkJoinPool(processors);
+        exporter = new StreamingPngExporter(renderPool);
+        renderPermits = new Semaphore(2 * processors, true);
+        doilyPermits = new Semaphore(4 * processors, true);
+        requestExecutor = createRequestExecutor();
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/render", this::handleRender);
+        server.createContext("/stats", this::handleStats);
+        server.setExecutor(requestExecutor);
+    }
+
+    public static void main(String[] args){
+        System.setProperty("java.awt.headless", "true");
+        if (args.length > 1){
+            System.err.println("Usage : --serve [port]");
+            System.exit(2);
+        }
+        try {
+            RenderService service = new RenderService(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+            service.start();
+            System.out.println("Rendering doilies on http://localhost:" + service.getPort() + "/render ("
+                    + (isUsingVirtualThreads(service.requestExecutor) ? "virtual threads" : REQUEST_THREADS + " threads") + ")");
+        } catch (IOException | NumberFormatException e){
+            System.err.println("Could not start the render service : " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static ExecutorService createRequestExecutor(){
+        // A virtual thread per request if the JVM has them (Executors.newVirtualThreadPerTaskExecutor(), Java 21).
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e){
+            return Executors.newFixedThreadPool(REQUEST_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "Render service request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static boolean isUsingVirtualThreads(ExecutorService executor){
+        return executor.getClass().getName().contains("ThreadPerTask");
+    }
+
+    public void start(){
+        server.start();
+    }
+
+    public void stop(){
+        // Stops accepting requests, waits up to a second for the current ones, then stops the threads.
+        server.stop(1);
+        requestExecutor.shutdown();
+        renderPool.shutdown();
+    }
+
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!exchange.getRequestMethod().equals("POST")){
+                sendText(exchange, 405, "Use POST with a doily definition as the body");
+                failed.incrementAndGet();
+                return;
+            }
+            if (getContentLength(exchange) > MAX_BODY_LENGTH){
+                sendText(exchange, 413, "The doily definition is more than " + MAX_BODY_LENGTH + " bytes long");
+                failed.incrementAndGet();
+                return;
+            }
+            // The body is only read once there is room for one more doily in memory.
+            if (!doilyPermits.tryAcquire(PERMIT_TIMEOUT, TimeUnit.SECONDS)){
+                exchange.getResponseHeaders().set("Retry-After", Integer.toString(PERMIT_TIMEOUT));
+                sendText(exchange, 503, "Too many doilies being rendered, try again later");
+                failed.incrementAndGet();
+                return;
+            }
+            try {
+                render(exchange, start);
+            } finally {
+                doilyPermits.release();
+            }
+        } catch (IOException | RuntimeException e){
+            // Most likely the client went away, or was too slow sending its body. The connection is simply closed.
+            failed.incrementAndGet();
+        } catch (InterruptedException e){
+            // The service is stopping.
+            Thread.currentThread().interrupt();
+            failed.incrementAndGet();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void render(HttpExchange exchange, long start) throws IOException {
+        // Parses the doily in the body of the request, then renders it as the response, once a render permit is free.
+        DoilyEngine engine;
+        int width;
+        try {
+            InputStream body = new LimitedInputStream(exchange.getRequestBody(), MAX_BODY_LENGTH);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            engine = new DoilyEngine(DoilyFile.read(reader, MAX_DOT_COUNT));
+            // The body counts as received (and BODY_TIMEOUT stops running) once read to its end.
+            body.transferTo(OutputStream.nullOutputStream());
+            width = getWidth(exchange.getRequestURI(), engine.getCanvasWidth());
+            if ((long) width * engine.getCanvasHeight() > (long) MAX_WIDTH * engine.getCanvasWidth()){
+                throw new IllegalArgumentException("the doily would be more than " + MAX_WIDTH + " pixels high");
+            }
+        } catch (BodyTooLongException e){
+            sendText(exchange, 413, "The doily definition is more than " + MAX_BODY_LENGTH + " bytes long");
+            failed.incrementAndGet();
+            return;
+        } catch (IOException | IllegalArgumentException e){
+            sendText(exchange, 400, "Invalid request : " + e.getMessage());
+            failed.incrementAndGet();
+            return;
+        }
+
+        renderPermits.acquireUninterruptibly();
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            // The PNG is streamed as it is compressed, so its length is unknown : 0 sends it chunked.
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody())){
+                engine.writePng(out, width, exporter);
+            }
+        } finally {
+            renderPermits.release();
+        }
+        served.incrementAndGet();
+        synchronized (latencies){
+            latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    private static long getContentLength(HttpExchange exchange){
+        // The length of the body the client announced, or -1 if it did not (a chunked body is counted as it is read).
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            return (length == null) ? -1 : Long.parseLong(length.trim());
+        } catch (NumberFormatException e){
+            return -1;
+        }
+    }
+
+    private static int getWidth(URI uri, int defaultWidth){
+        // The width query parameter, if any.
+        String query = uri.getRawQuery();
+        if (query != null){
+            for (String parameter : query.split("&")){
+                if (parameter.startsWith("width=")){
+                    int width = Integer.parseInt(parameter.substring("width=".length()));
+                    if (width <= 0 || width > MAX_WIDTH){
+                        throw new IllegalArgumentException("width must be between 1 and " + MAX_WIDTH);
+                    }
+                    return width;
+                }
+            }
+        }
+        return Math.min(defaultWidth, MAX_WIDTH);
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            String stats;
+            synchronized (latencies){
+                stats = String.format("served %d%nfailed %d%nmean %.1f ms%np50 %.1f ms%np99 %.1f ms%nmax %.1f ms%n",
+                        served.get(), failed.get(), latencies.getMean() / 1e6, latencies.getPercentile(50) / 1e6,
+                        latencies.getPercentile(99) / 1e6, latencies.getMax() / 1e6);
+            }
+            sendText(exchange, 200, stats);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        // Reads at most limit bytes from the underlying stream, failing with a BodyTooLongException past them.
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit){
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0){
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0){
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(int read) throws BodyTooLongException {
+            remaining -= read;
+            if (remaining < 0){
+                throw new BodyTooLongException();
+            }
+        }
+    }
+
+    private static class BodyTooLongException extends IOException {
+        BodyTooLongException(){
+            super("Request body longer than " + MAX_BODY_LENGTH + " bytes");
+        }
+    }
+
+    public long getServed() {
+        return served.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+}
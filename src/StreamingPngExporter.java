@@ -0,0 +1,251 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+public class StreamingPngExporter {
+    /* Exports doilies as PNG images too large to hold in memory (a 32768 x 32768 image takes 4 GB).
+       The output is rendered in horizontal strips by a DoilyRenderer (the strokes are sorted into the strips they cross
+       beforehand, see DoilyRenderer.indexBands(), so each strip only goes through the strokes crossing it), and
+       each strip is compressed into the PNG's image data as soon as it is rendered, then dropped. Memory use only
+       depends on the width of the output : a few strips are in memory at a time, however tall the output.
+
+       Strips are rendered in parallel on a ForkJoinPool, at most one per thread at a time (counting the strip being
+       written), and written in order. The PNG is written by hand : the header (IHDR), the image data deflated into
+       IDAT chunks of IDAT_SIZE bytes, and the end (IEND). Doilies are opaque, so pixels are written as RGB. Each row
+       is filtered by subtracting the pixel to its left ("Sub" filter), which turns the runs of a colour into zeros. */
+
+    public static final String PNG_EXTENSION = ".png";
+    // Exports of more pixels than this are streamed by the Control Panel, rather than rendered in memory.
+    public static final long STREAMING_PIXELS = 8192L * 8192;
+
+    // Pixels per strip : a 16 MB strip, e.g. 128 rows of a 32768 pixels wide output.
+    private static final int STRIP_PIXELS = 1 << 22;
+    private static final int IDAT_SIZE = 1 << 16;
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int FILTER_SUB = 1;
+
+    private final ForkJoinPool pool;
+    private boolean antialiasing = true;
+
+    public StreamingPngExporter(){
+        this(ForkJoinPool.commonPool());
+    }
+
+    public StreamingPngExporter(ForkJoinPool pool){
+        this.pool = pool;
+    }
+
+    public static boolean isPngFile(File file){
+        return file.getName().toLowerCase().endsWith(PNG_EXTENSION);
+    }
+
+    public Result export(DoilySnapshot doily, File file, int width) throws IOException {
+        // Writes doily to file as a PNG, deleting the file if that fails rather than leaving a partial PNG behind.
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))){
+            return write(doily, out, width);
+        } catch (IOException | RuntimeException e){
+            file.delete();
+            throw e;
+        }
+    }
+
+    public Result write(DoilySnapshot doily, OutputStream out, int width) throws IOException {
+        // Writes doily as a PNG of the given width (the height keeps the doily's aspect ratio).
+        if (width <= 0){
+            throw new IllegalArgumentException("Invalid width " + width + ", must be positive");
+        }
+        long start = System.nanoTime();
+        int height = DoilyRenderer.getHeightForWidth(doily, width);
+        DoilyRenderer renderer = new DoilyRenderer(doily, width, height);
+        renderer.setAntialiasing(antialiasing);
+        int stripHeight = Math.max(1, Math.min(height, STRIP_PIXELS / width));
+        DoilyRenderer.Bands strips = renderer.indexBands(stripHeight);
+        int stripCount = strips.getBandCount();
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8);
+        headerData.writeByte(COLOR_TYPE_RGB);
+        // Compression, filter and interlace methods : the only ones PNG defines, and no interlacing.
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        headerData.writeByte(0);
+        writeChunk(data, "IHDR", header.toByteArray(), header.size());
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        ChunkOutputStream chunks = new ChunkOutputStream(data);
+        long strokesDrawn = 0;
+        try (DeflaterOutputStream image = new DeflaterOutputStream(chunks, deflater, IDAT_SIZE)){
+            byte[] row = new byte[1 + 3 * width];
+            row[0] = FILTER_SUB;
+            ArrayDeque<Future<Strip>> rendering = new ArrayDeque<>();
+            int nextStrip = 0;
+            while (nextStrip < stripCount || !rendering.isEmpty()){
+                // Keeps every thread busy with the next strips while this one is compressed.
+                while (nextStrip < stripCount && rendering.size() < pool.getParallelism()){
+                    int index = nextStrip;
+                    int y = index * stripHeight;
+                    Rectangle region = new Rectangle(0, y, width, Math.min(stripHeight, height - y));
+                    rendering.add(pool.submit(() -> renderStrip(renderer, strips, index, region)));
+                    nextStrip++;
+                }
+                Strip strip = getStrip(rendering.poll());
+                strokesDrawn += strip.strokesDrawn;
+                int[] pixels = ((DataBufferInt) strip.image.getRaster().getDataBuffer()).getData();
+                for (int y = 0; y < strip.image.getHeight(); y++){
+                    filterRow(pixels, y * width, width, row);
+                    image.write(row);
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        writeChunk(data, "IEND", new byte[0], 0);
+        data.flush();
+        return new Result(width, height, stripHeight, doily.getDots().size(), strokesDrawn, System.nanoTime() - start);
+    }
+
+    private static Strip renderStrip(DoilyRenderer renderer, DoilyRenderer.Bands strips, int index, Rectangle region){
+        BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        int strokesDrawn = renderer.render(g2d, strips, index);
+        g2d.dispose();
+        return new Strip(image, strokesDrawn);
+    }
+
+    private static Strip getStrip(Future<Strip> strip) throws IOException {
+        try {
+            return strip.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering the doily");
+        } catch (ExecutionException e){
+            throw new IOException("Could not render the doily", e.getCause());
+        }
+    }
+
+    private static void filterRow(int[] pixels, int offset, int width, byte[] row){
+        // Writes the RGB bytes of the row of pixels starting at offset, each minus the one to its left (mod 256).
+        int previous = 0;
+        for (int x = 0, i = 1; x < width; x++, i += 3){
+            int pixel = pixels[offset + x];
+            row[i] = (byte) ((pixel >> 16) - (previous >> 16));
+            row[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+            row[i + 2] = (byte) (pixel - previous);
+            previous = pixel;
+        }
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+        // A chunk is its length, type, data and the CRC of its type and data.
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    static class ChunkOutputStream extends OutputStream {
+        // Collects the deflated image data, writing an IDAT chunk every IDAT_SIZE bytes and when closed.
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int length = 0;
+
+        ChunkOutputStream(DataOutputStream out){
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == buffer.length){
+                flushChunk();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int offset, int count) throws IOException {
+            while (count > 0){
+                if (length == buffer.length){
+                    flushChunk();
+                }
+                int copied = Math.min(count, buffer.length - length);
+                System.arraycopy(b, offset, buffer, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (length > 0){
+                writeChunk(out, "IDAT", buffer, length);
+                length = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The PNG's output is not closed : the IEND chunk comes next.
+            flushChunk();
+        }
+    }
+
+    static class Strip {
+        final BufferedImage image;
+        final int strokesDrawn;
+
+        Strip(BufferedImage image, int strokesDrawn){
+            this.image = image;
+            this.strokesDrawn = strokesDrawn;
+        }
+    }
+
+    public static class Result {
+        // Size of an exported PNG, along with how long it took.
+        private final int width, height, stripHeight;
+        private final int dotCount;
+        private final long strokesDrawn;
+        private final long elapsedNanos;
+
+        Result(int width, int height, int stripHeight, int dotCount, long strokesDrawn, long elapsedNanos){
+            this.width = width;
+            this.height = height;
+            this.stripHeight = stripHeight;
+            this.dotCount = dotCount;
+            this.strokesDrawn = strokesDrawn;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Exported %d dots (%d ovals and strokes) at %dx%d in strips of %d rows in %.1f ms : %.1f Mpx/s",
+                    dotCount, strokesDrawn, width, height, stripHeight, elapsedNanos / 1e6,
+                    (double) width * height / 1e6 / (elapsedNanos / 1e9));
+        }
+    }
+
+    public void setAntialiasing(boolean antialiasing) {
+        this.antialiasing = antialiasing;
+    }
+}
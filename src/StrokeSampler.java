@@ -0,0 +1,69 @@
+import java.awt.*;
+import java.util.List;
+
+public class StrokeSampler {
+    /* Turns the mouse positions received while drawing a stroke into the positions of the dots to add.
+       Mice report positions at very different rates : slow movements (or high polling rate mice) produce many
+       positions on top of each other, while fast strokes leave gaps between consecutive positions.
+       So positions closer than MIN_SPACING pen radii to the previous dot are dropped, and gaps wider than MAX_SPACING
+       pen radii are filled with evenly spaced dots, keeping strokes continuous with as few dots as possible.
+
+       Counters of positions received and dots emitted are kept, to see how much the sampling saves. */
+
+    // Spacing between consecutive dots of a stroke, in pen radii (half the pen size).
+    private static final double MIN_SPACING = 0.5;
+    private static final double MAX_SPACING = 1.0;
+
+    // Position of the last dot emitted in the current stroke.
+    private boolean strokeStarted = false;
+    private double lastX, lastY;
+
+    private long eventsReceived = 0;
+    private long dotsEmitted = 0;
+
+    public void startStroke(){
+        // The next position starts a new stroke, so it is never dropped nor joined to the previous stroke.
+        strokeStarted = false;
+    }
+
+    public void addPoint(int x, int y, int penSize, List<Point> emitted){
+        // Adds the positions of the dots to draw for the mouse position (x, y) to emitted.
+        eventsReceived++;
+        if (!strokeStarted){
+            emit(x, y, emitted);
+            strokeStarted = true;
+            return;
+        }
+
+        double penRadius = penSize / 2.0;
+        double minSpacing = Math.max(1, penRadius * MIN_SPACING);
+        double maxSpacing = Math.max(1, penRadius * MAX_SPACING);
+        double distance = Math.hypot(x - lastX, y - lastY);
+        if (distance < minSpacing){
+            return;
+        }
+
+        // Fill the gap with evenly spaced dots, the last one being at the mouse position.
+        int steps = (int) Math.ceil(distance / maxSpacing);
+        double startX = lastX, startY = lastY;
+        for (int i = 1; i < steps; i++){
+            emit((int) Math.round(startX + (x - startX) * i / steps), (int) Math.round(startY + (y - startY) * i / steps), emitted);
+        }
+        emit(x, y, emitted);
+    }
+
+    private void emit(int x, int y, List<Point> emitted){
+        emitted.add(new Point(x, y));
+        lastX = x;
+        lastY = y;
+        dotsEmitted++;
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    public long getDotsEmitted() {
+        return dotsEmitted;
+    }
+}
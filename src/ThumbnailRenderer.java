@@ -0,0 +1,35 @@
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ThumbnailRenderer {
+    /* Renders gallery thumbnails in the background, so saving a doily to the gallery never stalls drawing.
+       The Doily Panel only takes a snapshot of its dots on the EDT (a copy of a few arrays). Rendering the snapshot
+       straight at the size of a thumbnail (see PreviewRenderer) happens on a small pool of low priority threads,
+       leaving a processor for the EDT when there are several. */
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), new ThumbnailThreadFactory());
+
+    private static class ThumbnailThreadFactory implements java.util.concurrent.ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Thumbnail renderer " + count.incrementAndGet());
+            // Never keep the application alive, and let drawing take priority.
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+
+    public static CompletableFuture<BufferedImage> render(DoilySnapshot doily){
+        // Renders doily at the size of a gallery thumbnail : ImagePanel.SCALE times smaller than its canvas.
+        return CompletableFuture.supplyAsync(() -> new PreviewRenderer(doily,
+                Math.max(1, doily.getCanvasWidth() / ImagePanel.SCALE), Math.max(1, doily.getCanvasHeight() / ImagePanel.SCALE)).render(),
+                executor);
+    }
+}
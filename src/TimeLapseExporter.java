@@ -0,0 +1,199 @@
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+public class TimeLapseExporter {
+    /* Replays the construction of a doily : exports it as a sequence of frames, each showing a few more of its dots
+       in the order they were drawn, as an animated GIF or as numbered PNGs.
+       The dots are drawn onto a single image which is kept from one frame to the next, so each frame only draws the
+       dots added since the previous one (see DoilyRenderer.renderDots()). Exporting takes time in proportion to the
+       number of dots plus the number of frames, rather than redrawing every dot for every frame. As in the Doily
+       Panel, the dots of a frame are drawn over the dots of the previous frames in every sector.
+
+       Only whole strokes are drawn onto that image. Drawing the rest of a stroke a frame cut in two would start its
+       line again from the last dot drawn, drawing the round end there twice, which shows through translucent colours.
+       So the part of such a stroke in the frame is drawn over a copy of the image, along with the sector lines (which
+       would otherwise get covered by later dots), and the stroke is drawn onto the image whole in a later frame. */
+
+    public static final String GIF_EXTENSION = ".gif";
+    public static final int DEFAULT_FRAMES = 100;
+    // Time each frame is shown in the GIF, in milliseconds. The last frame is held for FINAL_FRAME_DELAY.
+    public static final int DEFAULT_FRAME_DELAY = 40;
+    private static final int FINAL_FRAME_DELAY = 2000;
+    private static final String FRAME_NAME_FORMAT = "frame_%05d.png";
+
+    private final DoilySnapshot doily;
+    private final DoilyRenderer renderer;
+    private int frames = DEFAULT_FRAMES;
+    private int frameDelay = DEFAULT_FRAME_DELAY;
+
+    interface FrameListener {
+        // Called with each frame in turn. The image is reused for the next frame.
+        void frame(BufferedImage image, int index, int dotCount) throws IOException;
+    }
+
+    public TimeLapseExporter(DoilySnapshot doily, int width){
+        if (width <= 0){
+            throw new IllegalArgumentException("Invalid width " + width + ", must be positive");
+        }
+        this.doily = doily;
+        this.renderer = new DoilyRenderer(doily, width, DoilyRenderer.getHeightForWidth(doily, width));
+    }
+
+    public static boolean isGifFile(File file){
+        return file.getName().toLowerCase().endsWith(GIF_EXTENSION);
+    }
+
+    public int renderFrames(FrameListener listener) throws IOException {
+        /* Renders the frames, passing each one to listener. Frame i (counting from 1) shows the first
+           dotCount * i / frames dots, so the last frame is the whole doily. Returns the number of frames. */
+        DotList dots = doily.getDots();
+        int dotCount = dots.size();
+        int frameCount = Math.max(1, Math.min(frames, dotCount));
+        BufferedImage canvas = new BufferedImage(renderer.getWidth(), renderer.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D canvasGraphics = canvas.createGraphics();
+        canvasGraphics.setColor(Color.black);
+        canvasGraphics.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        BufferedImage frame = null;
+
+        // Dots drawn onto the canvas : always whole strokes.
+        int drawnDots = 0;
+        try {
+            for (int i = 1; i <= frameCount; i++){
+                int frameDots = (int) ((long) dotCount * i / frameCount);
+                int wholeDots = dots.continuesStroke(frameDots) ? dots.getStrokeStart(frameDots - 1) : frameDots;
+                renderer.renderDots(canvasGraphics, drawnDots, wholeDots);
+                drawnDots = wholeDots;
+                BufferedImage image = canvas;
+                if (wholeDots < frameDots || doily.isDrawSectorLines()){
+                    if (frame == null){
+                        frame = new BufferedImage(canvas.getWidth(), canvas.getHeight(), BufferedImage.TYPE_INT_RGB);
+                    }
+                    frame.getRaster().setDataElements(0, 0, canvas.getRaster());
+                    Graphics2D frameGraphics = frame.createGraphics();
+                    renderer.renderDots(frameGraphics, wholeDots, frameDots);
+                    renderer.renderSectorLines(frameGraphics);
+                    frameGraphics.dispose();
+                    image = frame;
+                }
+                listener.frame(image, i, frameDots);
+            }
+        } finally {
+            canvasGraphics.dispose();
+        }
+        return frameCount;
+    }
+
+    public Result exportPngs(File directory) throws IOException {
+        // Writes the frames into directory as numbered PNGs (frame_00001.png, frame_00002.png...).
+        if (!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Cannot create " + directory);
+        }
+        long start = System.nanoTime();
+        int frameCount = renderFrames((image, index, dotCount) ->
+                ImageIO.write(image, "png", new File(directory, String.format(FRAME_NAME_FORMAT, index))));
+        return new Result(doily.getDots().size(), frameCount, System.nanoTime() - start);
+    }
+
+    public Result exportGif(File file) throws IOException {
+        // Writes the frames as an animated GIF, looping forever.
+        ImageWriter writer = ImageIO.getImageWritersBySuffix("gif").next();
+        long start = System.nanoTime();
+        int frameCount;
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)){
+            if (out == null){
+                throw new IOException("Cannot write to " + file);
+            }
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            int lastFrame = Math.max(1, Math.min(frames, doily.getDots().size()));
+            frameCount = renderFrames((image, index, dotCount) -> {
+                IIOMetadata metadata = getGifMetadata(writer, image, index == 1, index == lastFrame ? FINAL_FRAME_DELAY : frameDelay);
+                writer.writeToSequence(new IIOImage(image, null, metadata), null);
+            });
+            writer.endWriteSequence();
+        } finally {
+            writer.dispose();
+        }
+        return new Result(doily.getDots().size(), frameCount, System.nanoTime() - start);
+    }
+
+    private static IIOMetadata getGifMetadata(ImageWriter writer, BufferedImage image, boolean first, int delay) throws IOException {
+        // GIF metadata of a frame shown for delay milliseconds. The first frame also makes the animation loop forever.
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), null);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+        IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        // In hundredths of a second.
+        control.setAttribute("delayTime", Integer.toString(Math.max(1, delay / 10)));
+        control.setAttribute("transparentColorIndex", "0");
+        root.appendChild(control);
+
+        if (first){
+            // The NETSCAPE2.0 extension : loop count (0 for forever), as a little endian short after a sub-block id of 1.
+            IIOMetadataNode applications = new IIOMetadataNode("ApplicationExtensions");
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            loop.setUserObject(new byte[]{1, 0, 0});
+            applications.appendChild(loop);
+            root.appendChild(applications);
+        }
+        metadata.setFromTree(format, root);
+        return metadata;
+    }
+
+    public static class Result {
+        // Number of frames exported, along with how long it took.
+        private final int dotCount;
+        private final int frameCount;
+        private final long elapsedNanos;
+
+        Result(int dotCount, int frameCount, long elapsedNanos){
+            this.dotCount = dotCount;
+            this.frameCount = frameCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Exported %d dots in %d frames in %.1f ms : %.1f frames/s", dotCount, frameCount,
+                    elapsedNanos / 1e6, frameCount / (elapsedNanos / 1e9));
+        }
+    }
+
+    public void setFrames(int frames) {
+        if (frames <= 0){
+            throw new IllegalArgumentException("Invalid number of frames " + frames + ", must be positive");
+        }
+        this.frames = frames;
+    }
+
+    public void setFrameDelay(int frameDelay) {
+        this.frameDelay = frameDelay;
+    }
+
+    public void setAntialiasing(boolean antialiasing) {
+        renderer.setAntialiasing(antialiasing);
+    }
+}
@@ -0,0 +1,402 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+public class VectorExporter {
+    /* Exports doilies as vector images (SVG or PDF), which stay sharp at any size.
+       Every sector of a doily holds the same dots, rotated. So the dots are written once, as a group (an SVG <defs>
+       group, or a PDF form XObject), which is then drawn once per sector with a rotation. The size of the file and the
+       time taken only depend on the number of dots, not on the number of sectors or the size of the output.
+
+       Dots are streamed straight to the output, one stroke (see DotList) at a time, so memory use does not grow with
+       the doily. A stroke is a single line through its dots, with round caps and joins as wide as the dots.
+       Coordinates are in pixels of the canvas the doily was drawn on, relative to its center; the output is scaled to
+       the requested width. */
+
+    public static final String SVG_EXTENSION = ".svg";
+    public static final String PDF_EXTENSION = ".pdf";
+
+    public static boolean isVectorFile(File file){
+        String name = file.getName().toLowerCase();
+        return name.endsWith(SVG_EXTENSION) || name.endsWith(PDF_EXTENSION);
+    }
+
+    public static void export(DoilySnapshot doily, File file, int width) throws IOException {
+        // Exports doily to file, as a PDF if its name ends with PDF_EXTENSION and as an SVG otherwise.
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))){
+            if (file.getName().toLowerCase().endsWith(PDF_EXTENSION)){
+                writePdf(doily, out, width);
+            } else {
+                writeSvg(doily, out, width);
+            }
+        }
+    }
+
+    public static void writeSvg(DoilySnapshot doily, OutputStream out, int width) throws IOException {
+        // Writes doily as an SVG image of the given width (the height keeps the doily's aspect ratio).
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int height = DoilyRenderer.getHeightForWidth(doily, width);
+        int canvasWidth = doily.getCanvasWidth(), canvasHeight = doily.getCanvasHeight();
+        double centerX = canvasWidth / 2.0, centerY = canvasHeight / 2.0;
+        int numberOfSectors = doily.getNumberOfSectors();
+        double angleStep = 2*Math.PI/ numberOfSectors;
+        double offset = (numberOfSectors % 2 == 1) ? - angleStep/2 : 0;
+
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + width
+                + "\" height=\"" + height + "\" viewBox=\"0 0 " + canvasWidth + " " + canvasHeight + "\">\n");
+        writer.write("<rect width=\"" + canvasWidth + "\" height=\"" + canvasHeight + "\" fill=\"black\"/>\n");
+
+        // The dots of one sector, in drawing order. Consecutive dots of the same colour share a group.
+        writer.write("<defs>\n<g id=\"sector\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+        StringBuilder line = new StringBuilder(64);
+        int groupColor = 0;
+        boolean inGroup = false;
+        DotList dots = doily.getDots();
+        for (int start = 0, end; start < dots.size(); start = end){
+            end = dots.getStrokeEnd(start, dots.size());
+            if (!inGroup || dots.getColor(start) != groupColor){
+                if (inGroup){
+                    writer.write("</g>\n");
+                }
+                groupColor = dots.getColor(start);
+                inGroup = true;
+                line.setLength(0);
+                line.append("<g fill=\"#").append(String.format("%06x", groupColor & 0xffffff)).append('"');
+                int alpha = groupColor >>> 24;
+                if (alpha != 255){
+                    line.append(" fill-opacity=\"");
+                    appendNumber(line, alpha / 255.0, 3);
+                    line.append('"');
+                }
+                writer.append(line).append(">\n");
+            }
+            for (int pass = 0; pass < (doily.isReflectDrawnPoints() ? 2 : 1); pass++){
+                if (end - start == 1){
+                    int radius = dots.getRadius(start);
+                    writeCircle(writer, line, getCenterX(dots, start, pass == 1, angleStep), getCenterY(dots, start, pass == 1, angleStep), radius / 2.0);
+                } else {
+                    writePolyline(writer, line, dots, start, end, pass == 1, angleStep);
+                }
+            }
+        }
+        if (inGroup){
+            writer.write("</g>\n");
+        }
+        writer.write("</g>\n</defs>\n");
+
+        // One instance of the sector per sector, rotated around the center.
+        line.setLength(0);
+        line.append("<g transform=\"translate(");
+        appendNumber(line, centerX);
+        line.append(' ');
+        appendNumber(line, centerY);
+        line.append(")\">\n");
+        writer.append(line);
+        for (int k = 0; k < numberOfSectors; k++){
+            line.setLength(0);
+            line.append("<use xlink:href=\"#sector\" transform=\"rotate(");
+            appendNumber(line, Math.toDegrees(offset + k * angleStep), 4);
+            line.append(")\"/>\n");
+            writer.append(line);
+        }
+
+        if (doily.isDrawSectorLines()){
+            // Same as the Doily Panel's sector lines.
+            double lineLength = canvasWidth / 2.0 * 1.4;
+            writer.write("<g stroke=\"white\" stroke-width=\"" + DoilyRenderer.SECTOR_LINE_WIDTH + "\">\n");
+            for (int k = 0; k < numberOfSectors; k++){
+                line.setLength(0);
+                line.append("<line x1=\"0\" y1=\"0\" x2=\"");
+                appendNumber(line, Math.cos(offset + k * angleStep) * lineLength);
+                line.append("\" y2=\"");
+                appendNumber(line, Math.sin(offset + k * angleStep) * lineLength);
+                line.append("\"/>\n");
+                writer.append(line);
+            }
+            writer.write("</g>\n");
+        }
+        writer.write("</g>\n</svg>\n");
+        writer.flush();
+    }
+
+    private static void writePolyline(Writer writer, StringBuilder line, DotList dots, int start, int end, boolean mirrored,
+                                      double angleStep) throws IOException {
+        // The stroke made of the dots in [start, end), as a line in the stroke's colour.
+        int color = dots.getColor(start);
+        line.setLength(0);
+        line.append("<polyline fill=\"none\" stroke=\"#").append(String.format("%06x", color & 0xffffff)).append('"');
+        if (color >>> 24 != 255){
+            line.append(" stroke-opacity=\"");
+            appendNumber(line, (color >>> 24) / 255.0, 3);
+            line.append('"');
+        }
+        line.append(" stroke-width=\"").append(dots.getRadius(start)).append("\" points=\"");
+        for (int i = start; i < end; i++){
+            if (i > start){
+                line.append(' ');
+            }
+            appendNumber(line, getCenterX(dots, i, mirrored, angleStep));
+            line.append(',');
+            appendNumber(line, getCenterY(dots, i, mirrored, angleStep));
+            if (line.length() > 8192){
+                writer.append(line);
+                line.setLength(0);
+            }
+        }
+        line.append("\"/>\n");
+        writer.append(line);
+    }
+
+    private static double getCenterX(DotList dots, int i, boolean mirrored, double angleStep){
+        // Center of dot i (or of its reflection), see DoilyRenderer.
+        return mirrored ? DoilyRenderer.getMirroredCenterX(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i), angleStep)
+                : DoilyRenderer.getDotCenterX(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i), angleStep);
+    }
+
+    private static double getCenterY(DotList dots, int i, boolean mirrored, double angleStep){
+        return mirrored ? DoilyRenderer.getMirroredCenterY(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i), angleStep)
+                : DoilyRenderer.getDotCenterY(dots.getPolar(i), dots.getDistFromCenter(i), dots.getRadius(i), angleStep);
+    }
+
+    private static void writeCircle(Writer writer, StringBuilder line, double x, double y, double r) throws IOException {
+        line.setLength(0);
+        line.append("<circle cx=\"");
+        appendNumber(line, x);
+        line.append("\" cy=\"");
+        appendNumber(line, y);
+        line.append("\" r=\"");
+        appendNumber(line, r);
+        line.append("\"/>\n");
+        writer.append(line);
+    }
+
+    public static void writePdf(DoilySnapshot doily, OutputStream out, int width) throws IOException {
+        /* Writes doily as a single page PDF of the given width, in points (the height keeps the doily's aspect ratio).
+           The dots of one sector are a form XObject, compressed as it is written. Its length and resources (the
+           opacities used) are only known once the dots have been written, so they are written as separate objects after it.
+           Each stroke is a line with round caps and joins, as wide as its dots. A single dot is a zero length line, which
+           PDF paints as a filled circle. */
+        CountingOutputStream pdf = new CountingOutputStream(out);
+        int height = DoilyRenderer.getHeightForWidth(doily, width);
+        int canvasWidth = doily.getCanvasWidth(), canvasHeight = doily.getCanvasHeight();
+        int numberOfSectors = doily.getNumberOfSectors();
+        double angleStep = 2*Math.PI/ numberOfSectors;
+        double offset = (numberOfSectors % 2 == 1) ? - angleStep/2 : 0;
+        double scale = (double) width / canvasWidth;
+        long[] offsets = new long[8];
+        StringBuilder text = new StringBuilder(256);
+
+        writeAscii(pdf, "%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+        offsets[1] = pdf.count;
+        writeAscii(pdf, "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        offsets[2] = pdf.count;
+        writeAscii(pdf, "2 0 obj\n<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+        offsets[3] = pdf.count;
+        writeAscii(pdf, "3 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + width + " " + height + "] /Contents 4 0 R"
+                + " /Resources << /XObject << /Sector 5 0 R >> >> >>\nendobj\n");
+
+        // Page : black background, then the sector drawn once per sector. PDF's y axis points up, so flip it first.
+        text.setLength(0);
+        text.append("0 0 0 rg 0 0 ").append(width).append(' ').append(height).append(" re f\n");
+        text.append("1 0 0 -1 0 ").append(height).append(" cm\n");
+        appendNumber(text, scale, 6);
+        text.append(" 0 0 ");
+        appendNumber(text, scale, 6);
+        text.append(' ');
+        appendNumber(text, width / 2.0);
+        text.append(' ');
+        appendNumber(text, height / 2.0);
+        text.append(" cm\n");
+        for (int k = 0; k < numberOfSectors; k++){
+            double cos = Math.cos(offset + k * angleStep), sin = Math.sin(offset + k * angleStep);
+            text.append("q ");
+            appendNumber(text, cos, 6);
+            text.append(' ');
+            appendNumber(text, sin, 6);
+            text.append(' ');
+            appendNumber(text, -sin, 6);
+            text.append(' ');
+            appendNumber(text, cos, 6);
+            text.append(" 0 0 cm /Sector Do Q\n");
+        }
+        if (doily.isDrawSectorLines()){
+            double lineLength = canvasWidth / 2.0 * 1.4;
+            text.append("1 1 1 RG ").append(DoilyRenderer.SECTOR_LINE_WIDTH).append(" w\n");
+            for (int k = 0; k < numberOfSectors; k++){
+                text.append("0 0 m ");
+                appendNumber(text, Math.cos(offset + k * angleStep) * lineLength);
+                text.append(' ');
+                appendNumber(text, Math.sin(offset + k * angleStep) * lineLength);
+                text.append(" l S\n");
+            }
+        }
+        offsets[4] = pdf.count;
+        writeAscii(pdf, "4 0 obj\n<< /Length " + text.length() + " >>\nstream\n");
+        writeAscii(pdf, text);
+        writeAscii(pdf, "\nendstream\nendobj\n");
+
+        // The sector's dots.
+        double reach = Math.hypot(canvasWidth, canvasHeight);
+        offsets[5] = pdf.count;
+        writeAscii(pdf, "5 0 obj\n<< /Type /XObject /Subtype /Form /BBox [" + (int) -reach + " " + (int) -reach + " " + (int) reach + " "
+                + (int) reach + "] /Resources 7 0 R /Filter /FlateDecode /Length 6 0 R >>\nstream\n");
+        long streamStart = pdf.count;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        DeflaterOutputStream stream = new DeflaterOutputStream(new NonClosingOutputStream(pdf), deflater, 1 << 16);
+        BitSet opacities = new BitSet(256);
+        int color = 0, alpha = 255, radius = 0;
+        boolean first = true;
+        writeAscii(stream, "1 J 1 j\n");
+        DotList dots = doily.getDots();
+        for (int start = 0, end; start < dots.size(); start = end){
+            end = dots.getStrokeEnd(start, dots.size());
+            text.setLength(0);
+            if (first || dots.getRadius(start) != radius){
+                radius = dots.getRadius(start);
+                text.append(radius).append(" w\n");
+            }
+            if (first || dots.getColor(start) != color){
+                color = dots.getColor(start);
+                appendNumber(text, ((color >> 16) & 0xff) / 255.0, 3);
+                text.append(' ');
+                appendNumber(text, ((color >> 8) & 0xff) / 255.0, 3);
+                text.append(' ');
+                appendNumber(text, (color & 0xff) / 255.0, 3);
+                text.append(" RG\n");
+                if (first || color >>> 24 != alpha){
+                    // Opacity needs a graphics state, named after the alpha value (see the resources below).
+                    alpha = color >>> 24;
+                    opacities.set(alpha);
+                    text.append("/a").append(alpha).append(" gs\n");
+                }
+                first = false;
+            }
+            for (int pass = 0; pass < (doily.isReflectDrawnPoints() ? 2 : 1); pass++){
+                boolean mirrored = pass == 1;
+                appendPoint(text, getCenterX(dots, start, mirrored, angleStep), getCenterY(dots, start, mirrored, angleStep));
+                text.append("m ");
+                // A single dot is a line back to its own center.
+                for (int i = (end - start == 1) ? start : start + 1; i < end; i++){
+                    appendPoint(text, getCenterX(dots, i, mirrored, angleStep), getCenterY(dots, i, mirrored, angleStep));
+                    text.append("l ");
+                    if (text.length() > 8192){
+                        writeAscii(stream, text);
+                        text.setLength(0);
+                    }
+                }
+                text.append("S\n");
+            }
+            writeAscii(stream, text);
+        }
+        stream.finish();
+        deflater.end();
+        long streamLength = pdf.count - streamStart;
+        writeAscii(pdf, "\nendstream\nendobj\n");
+
+        offsets[6] = pdf.count;
+        writeAscii(pdf, "6 0 obj\n" + streamLength + "\nendobj\n");
+        offsets[7] = pdf.count;
+        text.setLength(0);
+        text.append("7 0 obj\n<< /ExtGState <<");
+        for (int a = opacities.nextSetBit(0); a >= 0; a = opacities.nextSetBit(a + 1)){
+            text.append(" /a").append(a).append(" << /CA ");
+            appendNumber(text, a / 255.0, 3);
+            text.append(" >>");
+        }
+        text.append(" >> >>\nendobj\n");
+        writeAscii(pdf, text);
+
+        long xref = pdf.count;
+        text.setLength(0);
+        text.append("xref\n0 8\n0000000000 65535 f \n");
+        for (int i = 1; i < offsets.length; i++){
+            text.append(String.format("%010d 00000 n \n", offsets[i]));
+        }
+        text.append("trailer\n<< /Size 8 /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+        writeAscii(pdf, text);
+        pdf.flush();
+    }
+
+    private static void appendPoint(StringBuilder text, double x, double y){
+        appendNumber(text, x);
+        text.append(' ');
+        appendNumber(text, y);
+        text.append(' ');
+    }
+
+    static void appendNumber(StringBuilder text, double value){
+        // Positions are in canvas pixels, so 2 decimals is precise to a hundredth of a pixel of the canvas.
+        appendNumber(text, value, 2);
+    }
+
+    static void appendNumber(StringBuilder text, double value, int decimals){
+        // Appends value with at most the given decimals, without trailing zeros. Much faster than String.format for millions of numbers.
+        long unit = 1;
+        for (int i = 0; i < decimals; i++){
+            unit *= 10;
+        }
+        long rounded = Math.round(value * unit);
+        if (rounded < 0){
+            text.append('-');
+            rounded = -rounded;
+        }
+        text.append(rounded / unit);
+        long fraction = rounded % unit;
+        if (fraction != 0){
+            text.append('.');
+            for (long digit = unit / 10; digit > fraction; digit /= 10){
+                text.append('0');
+            }
+            while (fraction % 10 == 0){
+                fraction /= 10;
+            }
+            text.append(fraction);
+        }
+    }
+
+    private static void writeAscii(OutputStream out, CharSequence text) throws IOException {
+        // PDF syntax is plain ASCII (apart from the binary marker of the header, written as Latin-1).
+        out.write(text.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        // Counts the bytes written, for the PDF's cross reference table.
+        long count = 0;
+
+        CountingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        // Lets the deflater finish its stream without closing the PDF.
+        NonClosingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}